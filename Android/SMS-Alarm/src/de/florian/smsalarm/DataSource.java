@@ -19,6 +19,7 @@ public class DataSource {
 
 	public DataSource(Context context) {
 
+		QueryStats.applyPreferences(context);
 		dbHelper = new MySQLiteHelper(context);
 		dbHelper.close();
 	}
@@ -35,8 +36,11 @@ public class DataSource {
 	public void deleteReaction(int id) {
 
 		System.out.println("Comment deleted with id: " + id);
+		long started = QueryStats.start();
 		database.delete(MySQLiteHelper.TABLE_MAIN, MySQLiteHelper.COLUMN_ID
 				+ " = " + id, null);
+		QueryStats.record("deleteReaction", "ID = " + id, started);
+		TriggerSnapshot.replace(this);
 	}
 
 	public void addReaction(String number, String content,
@@ -58,6 +62,7 @@ public class DataSource {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
+		long started = QueryStats.start();
 		long insertId = database
 				.insert(MySQLiteHelper.TABLE_MAIN, null, values);
 		Cursor cursor = database.query(MySQLiteHelper.TABLE_MAIN, Colums,
@@ -65,6 +70,8 @@ public class DataSource {
 				null);
 		cursor.moveToFirst();
 		cursor.close();
+		QueryStats.record("addReaction", number, started);
+		TriggerSnapshot.replace(this);
 
 	}
 
@@ -94,19 +101,31 @@ public class DataSource {
 		return convertToHex(md5hash);
 	}
 
-	public String[] getID(int number) {
-		ArrayList<Integer> ids = new ArrayList<Integer>();
-		Cursor c = database.query(MySQLiteHelper.TABLE_MAIN,
-				new String[] { MySQLiteHelper.COLUMN_ID },
-				MySQLiteHelper.COLUMN_NUMBER + "=" + number, null, null, null,
-				null);
+	private static final String TRIGGERS_QUERY = "select "
+			+ MySQLiteHelper.COLUMN_NUMBER + "," + MySQLiteHelper.COLUMN_CONTENT
+			+ " from " + MySQLiteHelper.TABLE_MAIN;
 
-		while (c.moveToNext()) {
-			ids.add(c.getInt(c.getColumnIndex(MySQLiteHelper.COLUMN_ID)));
+	/**
+	 * Get number and trigger text of all reactions, for
+	 * {@link TriggerSnapshot}.
+	 * 
+	 * @return
+	 */
+	public String[][] getAllTriggers() {
+		long started = QueryStats.start();
+		Cursor c = database.rawQuery(TRIGGERS_QUERY, null);
+		String[][] triggers;
+		try {
+			triggers = new String[c.getCount()][];
+			int i = 0;
+			while (c.moveToNext()) {
+				triggers[i++] = new String[] { c.getString(0), c.getString(1) };
+			}
+		} finally {
+			c.close();
 		}
-		String[] id = ids.toArray(new String[ids.size()]);
-		return id;
-
+		QueryStats.record("getAllTriggers", null, started);
+		return triggers;
 	}
 
 	/**
@@ -116,6 +135,7 @@ public class DataSource {
 	 * @return
 	 */
 	public String[] getID(String name) {
+		long started = QueryStats.start();
 		ArrayList<Integer> ids = new ArrayList<Integer>();
 		Cursor c = null;
 		try {
@@ -135,6 +155,7 @@ public class DataSource {
 			ids.add(c.getInt(c.getColumnIndex(MySQLiteHelper.COLUMN_ID)));
 		}
 		String[] id = ids.toArray(new String[ids.size()]);
+		QueryStats.record("getID(name)", name, started);
 		return id;
 
 	}
@@ -143,21 +164,8 @@ public class DataSource {
 
 	}
 
-	public String getDetails(String id) {
-		String data = "";
-		Cursor c = database.query(MySQLiteHelper.TABLE_MAIN, new String[] {
-				MySQLiteHelper.COLUMN_CONTENT,  MySQLiteHelper.COLUMN_NAME },
-				MySQLiteHelper.COLUMN_ID + "=" + id, null, null, null, null);
-
-		if (c.moveToFirst()) {			
-			data = c.getString(c
-					.getColumnIndex(MySQLiteHelper.COLUMN_CONTENT));
-		}
-		return data;
-
-	}
-
 	public String[] getReactionsList() {
+		long started = QueryStats.start();
 		ArrayList<String> addresses = new ArrayList<String>();
 		Cursor c = database.query(MySQLiteHelper.TABLE_MAIN, new String[] {
 				MySQLiteHelper.COLUMN_NAME, MySQLiteHelper.COLUMN_NUMBER },
@@ -170,6 +178,7 @@ public class DataSource {
 							.getColumnIndex(MySQLiteHelper.COLUMN_NUMBER)));
 		}
 		String[] strings = addresses.toArray(new String[addresses.size()]);
+		QueryStats.record("getReactionsList", null, started);
 		return strings;
 	}
 
@@ -15,7 +15,6 @@ public class MySQLiteHelper extends SQLiteOpenHelper {
 	public static final String COLUMN_MD5 = "md5";
 
 	private static final String DATABASE_NAME = "data.db";
-	private static final int DATABASE_VERSION = 9;
 
 	// Database creation sql statement
 	private static final String DATABASE_CREATE = "create table " + TABLE_MAIN
@@ -23,6 +22,37 @@ public class MySQLiteHelper extends SQLiteOpenHelper {
 			 + COLUMN_CONTENT + " text not null," + COLUMN_NAME + " text not null,"
 			+ COLUMN_NUMBER + " text not null,"  + COLUMN_MD5 + " text not null);";
 
+	/**
+	 * One step of the schema history, upgrading the database to its version
+	 * without losing data.
+	 */
+	abstract static class Migration {
+		final int version;
+
+		Migration(int version) {
+			this.version = version;
+		}
+
+		abstract void migrate(SQLiteDatabase db);
+	}
+
+	/**
+	 * The oldest layout that upgrades keep. Older databases predate the
+	 * migration steps and are recreated.
+	 */
+	private static final int FIRST_KEPT_VERSION = 9;
+
+	/**
+	 * The schema history after {@link #FIRST_KEPT_VERSION}, ordered by
+	 * version. The database version is that of the last step, or
+	 * FIRST_KEPT_VERSION while there is none; to change the schema, append a
+	 * step.
+	 */
+	private static final Migration[] MIGRATIONS = new Migration[] {};
+
+	private static final int DATABASE_VERSION = MIGRATIONS.length == 0 ? FIRST_KEPT_VERSION
+			: MIGRATIONS[MIGRATIONS.length - 1].version;
+
 	public MySQLiteHelper(Context context) {
 		super(context, DATABASE_NAME, null, DATABASE_VERSION);
 	}
@@ -34,11 +64,31 @@ public class MySQLiteHelper extends SQLiteOpenHelper {
 
 	@Override
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-		Log.w(MySQLiteHelper.class.getName(),
-				"Upgrading database from version " + oldVersion + " to "
-						+ newVersion + ", which will destroy all old data");
-		db.execSQL("DROP TABLE IF EXISTS " + TABLE_MAIN);
-		onCreate(db);
+		if (oldVersion < FIRST_KEPT_VERSION) {
+			Log.w(MySQLiteHelper.class.getName(),
+					"Upgrading database from version " + oldVersion + " to "
+							+ newVersion + ", which will destroy all old data");
+			db.execSQL("DROP TABLE IF EXISTS " + TABLE_MAIN);
+			onCreate(db);
+			return;
+		}
+		// Each step runs in its own transaction, nested in the one the
+		// helper commits together with the new version.
+		for (Migration migration : MIGRATIONS) {
+			if (migration.version <= oldVersion
+					|| migration.version > newVersion) {
+				continue;
+			}
+			Log.i(MySQLiteHelper.class.getName(),
+					"Upgrading database to version " + migration.version);
+			db.beginTransaction();
+			try {
+				migration.migrate(db);
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+		}
 	}
 
 }
@@ -1,6 +1,11 @@
 package de.florian.smsalarm;
 
+import android.app.AlertDialog;
+import android.content.DialogInterface;
 import android.os.Bundle;
+import android.preference.Preference;
+import android.preference.Preference.OnPreferenceChangeListener;
+import android.preference.Preference.OnPreferenceClickListener;
 import android.preference.PreferenceActivity;
 
 public class Preferences extends PreferenceActivity {
@@ -8,6 +13,37 @@ public class Preferences extends PreferenceActivity {
 	public void onCreate(Bundle savedInstanceState) {     
 	    super.onCreate(savedInstanceState);        
 	    addPreferencesFromResource(R.xml.settings);        
+	    findPreference(QueryStats.PREF_SLOW_THRESHOLD).setOnPreferenceChangeListener(
+	    		new OnPreferenceChangeListener() {
+	    			public boolean onPreferenceChange(Preference preference,
+	    					Object newValue) {
+	    				try {
+	    					QueryStats.setSlowThresholdMs(Long
+	    							.parseLong(newValue.toString()));
+	    				} catch (NumberFormatException e) {
+	    					return false;
+	    				}
+	    				return true;
+	    			}
+	    		});
+	    findPreference("querystats").setOnPreferenceClickListener(
+	    		new OnPreferenceClickListener() {
+	    			public boolean onPreferenceClick(Preference preference) {
+	    				new AlertDialog.Builder(Preferences.this)
+	    						.setTitle(preference.getTitle())
+	    						.setMessage(QueryStats.getReport())
+	    						.setPositiveButton(android.R.string.ok, null)
+	    						.setNeutralButton("Zurücksetzen",
+	    								new DialogInterface.OnClickListener() {
+	    									public void onClick(
+	    											DialogInterface dialog,
+	    											int which) {
+	    										QueryStats.reset();
+	    									}
+	    								}).show();
+	    				return true;
+	    			}
+	    		});
 	}
 
 }
@@ -0,0 +1,147 @@
+package de.florian.smsalarm;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import android.content.Context;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+/**
+ * Latency statistics for the database calls of {@link DataSource}.
+ *
+ * Every call is counted in a histogram per operation, with power-of-two
+ * millisecond buckets; calls over the slow-query threshold (the
+ * "slowquerythreshold" preference, 50 ms by default) are also kept in a
+ * small ring buffer. Both live in memory only.
+ */
+public final class QueryStats {
+	private static final String TAG = "SMSAlarm";
+
+	static final String PREF_SLOW_THRESHOLD = "slowquerythreshold";
+	private static final long DEFAULT_SLOW_THRESHOLD_MS = 50;
+	private static final long[] BUCKET_LIMITS_MS = new long[] { 1, 2, 4, 8,
+			16, 32, 64, 128, 256, 512 };
+	private static final int SLOW_LOG_SIZE = 32;
+
+	private static final Map<String, long[]> histograms = new TreeMap<String, long[]>();
+	private static final String[] slowLog = new String[SLOW_LOG_SIZE];
+	private static int slowLogNext = 0;
+	private static volatile long slowThresholdMs = DEFAULT_SLOW_THRESHOLD_MS;
+
+	private QueryStats() {
+	}
+
+	static long start() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Record a finished call.
+	 *
+	 * @param operation
+	 *            the DataSource method.
+	 * @param detail
+	 *            the selection, for the slow-query log.
+	 * @param startNanos
+	 *            the value of {@link #start()} before the call.
+	 */
+	static void record(String operation, String detail, long startNanos) {
+		long ms = (System.nanoTime() - startNanos) / 1000000;
+		int bucket = 0;
+		while (bucket < BUCKET_LIMITS_MS.length
+				&& ms >= BUCKET_LIMITS_MS[bucket]) {
+			bucket++;
+		}
+		synchronized (histograms) {
+			long[] buckets = histograms.get(operation);
+			if (buckets == null) {
+				buckets = new long[BUCKET_LIMITS_MS.length + 1];
+				histograms.put(operation, buckets);
+			}
+			buckets[bucket]++;
+
+			if (ms >= slowThresholdMs) {
+				String entry = String.format("%tT %d ms %s: %s",
+						System.currentTimeMillis(), ms, operation, detail);
+				slowLog[slowLogNext] = entry;
+				slowLogNext = (slowLogNext + 1) % SLOW_LOG_SIZE;
+				Log.w(TAG, "Slow query: " + entry);
+			}
+		}
+	}
+
+	/**
+	 * Apply the slow-query threshold from the preferences. An invalid value
+	 * keeps the current threshold.
+	 *
+	 * @param context
+	 */
+	static void applyPreferences(Context context) {
+		try {
+			setSlowThresholdMs(Long.parseLong(PreferenceManager
+					.getDefaultSharedPreferences(context).getString(
+							PREF_SLOW_THRESHOLD,
+							String.valueOf(DEFAULT_SLOW_THRESHOLD_MS))));
+		} catch (NumberFormatException e) {
+			// Keep the current threshold.
+		}
+	}
+
+	/**
+	 * Set the duration from which calls are written to the slow-query log.
+	 *
+	 * @param thresholdMs
+	 */
+	public static void setSlowThresholdMs(long thresholdMs) {
+		slowThresholdMs = thresholdMs;
+	}
+
+	/**
+	 * Render the histograms and the slow-query log, newest entry first.
+	 *
+	 * @return
+	 */
+	public static String getReport() {
+		StringBuilder report = new StringBuilder();
+		synchronized (histograms) {
+			for (Map.Entry<String, long[]> entry : histograms.entrySet()) {
+				report.append(entry.getKey()).append('\n');
+				long[] buckets = entry.getValue();
+				for (int i = 0; i < buckets.length; i++) {
+					if (buckets[i] == 0) {
+						continue;
+					}
+					report.append("  ")
+							.append(i < BUCKET_LIMITS_MS.length ? "< "
+									+ BUCKET_LIMITS_MS[i] : ">= "
+									+ BUCKET_LIMITS_MS[i - 1]).append(" ms: ")
+							.append(buckets[i]).append('\n');
+				}
+			}
+			report.append("\nLangsam (>= ").append(slowThresholdMs)
+					.append(" ms):\n");
+			for (int i = 1; i <= SLOW_LOG_SIZE; i++) {
+				String entry = slowLog[(slowLogNext - i + SLOW_LOG_SIZE)
+						% SLOW_LOG_SIZE];
+				if (entry != null) {
+					report.append(entry).append('\n');
+				}
+			}
+		}
+		return report.toString();
+	}
+
+	/**
+	 * Clear all statistics, e.g. before measuring a change.
+	 */
+	public static void reset() {
+		synchronized (histograms) {
+			histograms.clear();
+			for (int i = 0; i < SLOW_LOG_SIZE; i++) {
+				slowLog[i] = null;
+			}
+			slowLogNext = 0;
+		}
+	}
+}
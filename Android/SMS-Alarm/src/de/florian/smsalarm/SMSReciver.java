@@ -24,15 +24,13 @@ public class SMSReciver extends BroadcastReceiver {
 		for (int n = 0; n < messages.length; n++) {
 			smsMessage[n] = SmsMessage.createFromPdu((byte[]) messages[n]);
 		}
-		int sender = Integer.parseInt(smsMessage[0].getOriginatingAddress());
+		String sender = smsMessage[0].getOriginatingAddress();
 		String message = smsMessage[0].getMessageBody().toString();
-		DataSource d = new DataSource(context);
-		d.open();
-		String[] ret = d.getID(sender);		
-		if (ret.length != 0) {			
-			for (int i = 0; i < ret.length; i++) {
-				String content = d.getDetails(ret[i]);
-							
+		String[] triggers = TriggerSnapshot.get(context).getTriggers(sender);
+		if (triggers.length != 0) {
+			for (int i = 0; i < triggers.length; i++) {
+				String content = triggers[i];
+
 				if (message.contains(content)) {
 					try {
 						Toast.makeText(
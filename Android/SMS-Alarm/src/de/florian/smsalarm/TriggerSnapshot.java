@@ -0,0 +1,147 @@
+package de.florian.smsalarm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import android.content.Context;
+import android.telephony.PhoneNumberUtils;
+
+/**
+ * All reactions in memory, keyed by normalized sender, so an incoming SMS is
+ * classified without touching the database.
+ * 
+ * A snapshot never changes. It is loaded on first use and replaced as a
+ * whole whenever {@link DataSource} changes the reactions, so readers always
+ * see a complete table.
+ */
+final class TriggerSnapshot {
+	// Numbers are keyed by their last digits, so the same sender matches
+	// with or without country code (as PhoneNumberUtils.compare() does).
+	private static final int MATCH_DIGITS = 7;
+
+	private static volatile TriggerSnapshot current;
+
+	private static final class Trigger {
+		final String number;
+		final String content;
+
+		Trigger(String number, String content) {
+			this.number = number;
+			this.content = content;
+		}
+	}
+
+	private final Map<String, Trigger[]> triggers;
+
+	private TriggerSnapshot(String[][] reactions) {
+		HashMap<String, ArrayList<Trigger>> byKey = new HashMap<String, ArrayList<Trigger>>();
+		for (String[] reaction : reactions) {
+			String key = normalize(reaction[0]);
+			ArrayList<Trigger> list = byKey.get(key);
+			if (list == null) {
+				list = new ArrayList<Trigger>();
+				byKey.put(key, list);
+			}
+			list.add(new Trigger(reaction[0], reaction[1]));
+		}
+		HashMap<String, Trigger[]> triggers = new HashMap<String, Trigger[]>();
+		for (Map.Entry<String, ArrayList<Trigger>> entry : byKey.entrySet()) {
+			triggers.put(entry.getKey(), entry.getValue().toArray(
+					new Trigger[entry.getValue().size()]));
+		}
+		this.triggers = Collections.unmodifiableMap(triggers);
+	}
+
+	/**
+	 * Get the current snapshot, loading it from the database on first use.
+	 * 
+	 * @param context
+	 * @return
+	 */
+	static TriggerSnapshot get(Context context) {
+		TriggerSnapshot snapshot = current;
+		if (snapshot == null) {
+			synchronized (TriggerSnapshot.class) {
+				if (current == null) {
+					DataSource d = new DataSource(context);
+					d.open();
+					try {
+						current = new TriggerSnapshot(d.getAllTriggers());
+					} finally {
+						d.close();
+					}
+				}
+				snapshot = current;
+			}
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Replace the snapshot after the reactions were changed. The reactions
+	 * are read and published under one lock, so of two concurrent changes
+	 * the one that reads last, and therefore sees both, wins.
+	 * 
+	 * @param source
+	 *            the open data source that made the change.
+	 */
+	static void replace(DataSource source) {
+		synchronized (TriggerSnapshot.class) {
+			current = new TriggerSnapshot(source.getAllTriggers());
+		}
+	}
+
+	/**
+	 * Get the trigger texts of all reactions for a sender.
+	 * 
+	 * @param sender
+	 *            Die Absenderadresse der SMS
+	 * @return
+	 */
+	String[] getTriggers(String sender) {
+		Trigger[] candidates = triggers.get(normalize(sender));
+		if (candidates == null) {
+			return new String[0];
+		}
+		ArrayList<String> contents = new ArrayList<String>(candidates.length);
+		for (Trigger trigger : candidates) {
+			// Alphanumeric senders are keyed exactly; numbers only by
+			// their end.
+			if (!hasDigits(sender)
+					|| PhoneNumberUtils.compare(trigger.number, sender)) {
+				contents.add(trigger.content);
+			}
+		}
+		return contents.toArray(new String[contents.size()]);
+	}
+
+	static String normalize(String number) {
+		StringBuilder digits = new StringBuilder(number.length());
+		for (int i = 0; i < number.length(); i++) {
+			char c = number.charAt(i);
+			if (c >= '0' && c <= '9') {
+				digits.append(c);
+			}
+		}
+		if (digits.length() == 0) {
+			return number.trim().toUpperCase(Locale.US);
+		}
+		if (digits.length() > MATCH_DIGITS) {
+			return digits.substring(digits.length() - MATCH_DIGITS);
+		}
+		return digits.toString();
+	}
+
+	private static boolean hasDigits(String number) {
+		for (int i = 0; i < number.length(); i++) {
+			char c = number.charAt(i);
+			if (c >= '0' && c <= '9') {
+				return true;
+			}
+		}
+		return false;
+	}
+}
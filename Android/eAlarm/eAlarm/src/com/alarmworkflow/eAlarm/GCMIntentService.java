@@ -1,5 +1,7 @@
 package com.alarmworkflow.eAlarm;
 
+import java.util.ArrayList;
+
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
@@ -7,6 +9,7 @@ import android.content.SharedPreferences.Editor;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 
+import com.alarmworkflow.eAlarm.database.MessageWriter;
 import com.alarmworkflow.eAlarm.database.NotificationMessage;
 import com.alarmworkflow.eAlarm.general.Constants;
 import com.alarmworkflow.eAlarm.general.NotificationService;
@@ -53,15 +56,15 @@ public class GCMIntentService extends GCMBaseIntentService {
 		NotificationMessage[] message = null;
 
 		NotificationMessage highestMessage = null;
+		ArrayList<NotificationMessage> matches = new ArrayList<NotificationMessage>();
 		try {
 			message = NotificationMessage.fromGCM(context, extras);
 		} catch (Exception e) {
 			return;
 		}
 		for (NotificationMessage notificationMessage : message) {
-			if (notificationMessage.getRule() != null) {// Persist this
-															// message to
-															// the database.
+			if (notificationMessage.getRule() != null) {
+				matches.add(notificationMessage);
 				if (highestMessage == null
 						|| highestMessage.getRule().getPriority() < notificationMessage
 								.getRule().getPriority()) {
@@ -69,20 +72,25 @@ public class GCMIntentService extends GCMBaseIntentService {
 				}
 			}
 		}
+		if (highestMessage == null) {
+			return;
+		}
+		// Persist the message for every matching rule at once, so each
+		// rule's history is complete. This happens in the background; the
+		// notification service gets the message in memory right away.
+		long token = MessageWriter.submit(context, matches, highestMessage);
 		// Send a notification to the notification service, which
 		// will then
 		// dispatch and handle everything else.
-		if (highestMessage != null) {
-			highestMessage.save(context);
-			Intent intentData = new Intent(getBaseContext(),
-					NotificationService.class);
-			intentData.putExtra("messageId", highestMessage.getId());
-			intentData.putExtra("operation", "notification");
-			startService(intentData);
-		}
-		Intent brIntent = new Intent();
-		brIntent.setAction("com.alarmworkflow.eAlarm.revicedMessage");
-		sendBroadcast(brIntent);
+		Intent intentData = new Intent(getBaseContext(),
+				NotificationService.class);
+		intentData.putExtra("messageToken", token);
+		intentData.putExtra("operation", "notification");
+		startService(intentData);
+
+		// Keep this service's wake lock until the messages are stored; open
+		// lists learn about them through MessageChanges.
+		MessageWriter.awaitWritten(token);
 	}
 
 	/**
@@ -3,8 +3,6 @@ package com.alarmworkflow.eAlarm;
 import java.io.IOException;
 import java.util.List;
 
-import org.json.JSONException;
-
 import com.alarmworkflow.eAlarm.database.NotificationMessage;
 import com.alarmworkflow.eAlarm.general.eAlarm;
 import com.google.android.gms.common.ConnectionResult;
@@ -54,13 +52,8 @@ public class Map extends FragmentActivity {
 					this, 1);
 			dialog.show();
 		}
-		String location = null;
-		try {
-			location = this.getMessage().getContent().getString("awf_location");
-		} catch (JSONException e2) {
-
-			finish();
-		}
+		String location = this.getMessage().getContent()
+				.optString("awf_location", null);
 		Geocoder coder = new Geocoder(this);
 		List<Address> coordinats = null;
 		if (location == null) {
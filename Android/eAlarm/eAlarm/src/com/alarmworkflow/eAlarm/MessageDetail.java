@@ -3,8 +3,6 @@ package com.alarmworkflow.eAlarm;
 import java.io.IOException;
 import java.util.List;
 
-import org.json.JSONException;
-
 import com.alarmworkflow.eAlarm.database.NotificationMessage;
 import com.alarmworkflow.eAlarm.general.NotificationService;
 import com.alarmworkflow.eAlarm.general.eAlarm;
@@ -120,12 +118,9 @@ public class MessageDetail extends FragmentActivity {
 			FragmentManager myFragmentManager = getSupportFragmentManager();
 			SupportMapFragment mySupportMapFragment = (SupportMapFragment) myFragmentManager
 					.findFragmentById(R.id.map);
-			String location = null;
-			try {
-				location = this.getMessage().getContent().getString("awf_location");
-			} catch (JSONException e2) {
-				hideMapstuff();
-			}
+			// The content is already loaded; no query on the UI thread.
+			String location = this.getMessage().getContent()
+					.optString("awf_location", null);
 			Geocoder coder = new Geocoder(this);
 			List<Address> coordinats = null;
 			if (location == null) {
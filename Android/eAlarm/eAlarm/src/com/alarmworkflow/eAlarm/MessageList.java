@@ -1,27 +1,36 @@
 package com.alarmworkflow.eAlarm;
 
-import java.text.ParseException;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Date;
 
 import android.app.ListActivity;
-import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.database.Cursor;
+import android.database.MergeCursor;
 import android.graphics.Typeface;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.ContextMenu;
 import android.view.ContextMenu.ContextMenuInfo;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
 import android.widget.AdapterView.AdapterContextMenuInfo;
+import android.widget.AutoCompleteTextView;
+import android.widget.FilterQueryProvider;
 import android.widget.ListView;
 import android.widget.SimpleCursorAdapter;
 import android.widget.TextView;
 
 import com.alarmworkflow.eAlarm.database.DatabaseAdapter;
+import com.alarmworkflow.eAlarm.database.MessageChanges;
 import com.alarmworkflow.eAlarm.database.NotificationMessage;
 import com.alarmworkflow.eAlarm.database.NotificationRule;
 import com.alarmworkflow.eAlarm.general.NotificationService;
@@ -29,37 +38,86 @@ import com.alarmworkflow.eAlarm.general.NotificationService;
 public class MessageList extends ListActivity {
 	private NotificationRule rule = null;
 	private SimpleCursorAdapter adapter;
+	private SimpleCursorAdapter locations;
 	private static final int DELETE_ID = 1;
-	private BroadcastReceiver receiver = new BroadcastReceiver() {
-		@Override
-		public void onReceive(Context context, Intent intent) {
-			updateNotifications();
+	private static final int PAGE_SIZE = 50;
+	// Load the next page when the user scrolls within this many rows of the
+	// end of the loaded pages.
+	private static final int PAGE_PRELOAD = 10;
+	private final ArrayList<Cursor> pages = new ArrayList<Cursor>();
+	private boolean allPagesLoaded = false;
+	// Pages are loaded in the background. Results of a load started before
+	// the latest refresh are dropped.
+	private int generation = 0;
+	private boolean loadingPage = false;
+	private boolean destroyed = false;
+	private String searchText = "";
+	// Applies changes to the messages while the list is visible. Only a new
+	// message is added in place; anything else reloads the first page.
+	private MessageChanges.Listener changes = new MessageChanges.Listener() {
+		public void onMessageInserted(long id, long ruleId) {
+			if (!showsRule(ruleId)) {
+				return;
+			}
+			if (searchText.length() > 0 || loadingPage || pages.isEmpty()) {
+				refreshView();
+			} else {
+				new InsertTask(id).execute();
+			}
+		}
+
+		public void onMessageUpdated(long id, long ruleId) {
+			if (showsRule(ruleId)) {
+				refreshView();
+			}
+		}
+
+		public void onMessageDeleted(long id) {
+			refreshView();
+		}
+
+		public void onRuleChanged(Long ruleId) {
+			if (ruleId == null || showsRule(ruleId)) {
+				refreshView();
+			}
 		}
 	};
 
 	/** Called when the activity is first created. */
+	@SuppressWarnings("deprecation")
 	public void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 
 		// Set the layout.
 		setContentView(R.layout.screen_recent_messages);
-		//refreshView(); //not required anymore as we call the method now in onResume ?!?
-	}
+		AutoCompleteTextView search = (AutoCompleteTextView) findViewById(R.id.message_search);
+		search.addTextChangedListener(searchWatcher);
+
+		// Suggest the most frequent alarm locations starting with the typed
+		// text. The filter runs the query on its own thread.
+		locations = new SimpleCursorAdapter(this,
+				android.R.layout.simple_dropdown_item_1line, null,
+				new String[] { NotificationMessage.KEY_FIELD_VALUE },
+				new int[] { android.R.id.text1 });
+		// Picking a suggestion puts its value (column 1) into the box.
+		locations.setStringConversionColumn(1);
+		locations.setFilterQueryProvider(new FilterQueryProvider() {
+			public Cursor runQuery(CharSequence constraint) {
+				return NotificationMessage.FACTORY.cursorFieldValues(
+						MessageList.this, "awf_location",
+						constraint == null ? "" : constraint.toString());
+			}
+		});
+		search.setAdapter(locations);
 
-	@SuppressWarnings("deprecation")
-	public void refreshView() {
-		// Set up our cursor and list adapter. This automatically updates
-		// as messages are updated and changed.
-		Cursor cursor = NotificationMessage.FACTORY.cursorList(this,
-				this.getRule());
-		this.startManagingCursor(cursor);
+		// The adapter starts empty; refreshView() fills it in the background.
 		adapter = new SimpleCursorAdapter(
 				this,
 				R.layout.message_list_row,
-				cursor,
+				null,
 				new String[] { DatabaseAdapter.KEY_TITLE,
 						DatabaseAdapter.KEY_MESSAGE,
-						DatabaseAdapter.KEY_TIMESTAMP, DatabaseAdapter.KEY_SEEN },
+						DatabaseAdapter.KEY_TIMESTAMP_MS, DatabaseAdapter.KEY_SEEN },
 				new int[] { R.id.message_row_title, R.id.message_row_text,
 						R.id.message_row_timestamp });
 
@@ -67,10 +125,219 @@ public class MessageList extends ListActivity {
 
 		this.setListAdapter(adapter);
 		ListView list = (ListView) findViewById(android.R.id.list);
+		list.setOnScrollListener(scrollListener);
 		registerForContextMenu(list);
+	}
+
+	public void refreshView() {
+		// Load the first page in the background; the current pages stay
+		// visible until it arrives. Further pages are loaded as the user
+		// scrolls.
+		generation++;
+		loadingPage = true;
+		if (searchText.length() > 0) {
+			// Search results come from the full-text index in one cursor.
+			new PageTask(searchText, Long.MAX_VALUE, Long.MAX_VALUE).execute();
+		} else {
+			new PageTask(null, Long.MAX_VALUE, Long.MAX_VALUE).execute();
+		}
+	}
+
+	/**
+	 * Load the page after the last loaded row in the background; it is
+	 * appended to the list when it arrives.
+	 */
+	private void loadNextPage() {
+		if (loadingPage || pages.isEmpty()) {
+			return;
+		}
+		Cursor last = pages.get(pages.size() - 1);
+		if (!last.moveToLast()) {
+			allPagesLoaded = true;
+			return;
+		}
+		long timestamp = last.getLong(last
+				.getColumnIndex(DatabaseAdapter.KEY_TIMESTAMP_MS));
+		long id = last.getLong(last.getColumnIndex(DatabaseAdapter.KEY_ID));
+
+		loadingPage = true;
+		new PageTask(null, timestamp, id).execute();
+	}
+
+	/**
+	 * Show a freshly loaded first page (or search result) instead of the
+	 * current pages.
+	 */
+	private void showFirstPage(Cursor cursor, boolean complete) {
+		ArrayList<Cursor> old = new ArrayList<Cursor>(pages);
+		pages.clear();
+		pages.add(cursor);
+		allPagesLoaded = complete || cursor.getCount() < PAGE_SIZE;
+		adapter.changeCursor(new PagedCursor(pages));
+		for (Cursor page : old) {
+			page.close();
+		}
+	}
+
+	/**
+	 * Append a loaded page to the list.
+	 */
+	private void appendPage(Cursor next) {
+		if (next.getCount() == 0) {
+			next.close();
+			allPagesLoaded = true;
+			return;
+		}
+		pages.add(next);
+		allPagesLoaded = next.getCount() < PAGE_SIZE;
+		adapter.changeCursor(new PagedCursor(pages));
+	}
+
+	/**
+	 * Add a newly stored message on top of the list, as a page of its own.
+	 */
+	private void prependRow(Cursor row) {
+		Cursor first = pages.get(0);
+		if (!row.moveToFirst()
+				|| (first.moveToFirst() && row.getLong(row
+						.getColumnIndex(DatabaseAdapter.KEY_TIMESTAMP_MS)) < first
+						.getLong(first
+								.getColumnIndex(DatabaseAdapter.KEY_TIMESTAMP_MS)))) {
+			// Gone already, or it does not belong on top; let the list sort
+			// it in.
+			row.close();
+			refreshView();
+			return;
+		}
+		pages.add(0, row);
+		adapter.changeCursor(new PagedCursor(pages));
+	}
+
+	/**
+	 * Loads one page of messages (or the search result) off the UI thread.
+	 */
+	private class PageTask extends AsyncTask<Void, Void, Cursor> {
+		private final int taskGeneration = generation;
+		private final Context context = getApplicationContext();
+		private final NotificationRule rule = getRule();
+		private final String search;
+		private final long beforeTimestampMs;
+		private final long beforeId;
+
+		PageTask(String search, long beforeTimestampMs, long beforeId) {
+			this.search = search;
+			this.beforeTimestampMs = beforeTimestampMs;
+			this.beforeId = beforeId;
+		}
 
+		@Override
+		protected Cursor doInBackground(Void... params) {
+			if (search != null) {
+				return NotificationMessage.FACTORY.search(context, rule,
+						search, 0);
+			}
+			return NotificationMessage.FACTORY.cursorPage(context, rule,
+					beforeTimestampMs, beforeId, PAGE_SIZE);
+		}
+
+		@Override
+		protected void onPostExecute(Cursor cursor) {
+			if (destroyed || taskGeneration != generation) {
+				cursor.close();
+				return;
+			}
+			loadingPage = false;
+			if (beforeId == Long.MAX_VALUE) {
+				showFirstPage(cursor, search != null);
+			} else {
+				appendPage(cursor);
+			}
+		}
 	}
 
+	/**
+	 * Loads a single new message off the UI thread.
+	 */
+	private class InsertTask extends AsyncTask<Void, Void, Cursor> {
+		private final int taskGeneration = generation;
+		private final Context context = getApplicationContext();
+		private final long id;
+
+		InsertTask(long id) {
+			this.id = id;
+		}
+
+		@Override
+		protected Cursor doInBackground(Void... params) {
+			return NotificationMessage.FACTORY.cursorById(context, id);
+		}
+
+		@Override
+		protected void onPostExecute(Cursor cursor) {
+			// A refresh started since then loads the message anyway.
+			if (destroyed || taskGeneration != generation || pages.isEmpty()) {
+				cursor.close();
+				return;
+			}
+			prependRow(cursor);
+		}
+	}
+
+	/**
+	 * Runs a change to the messages off the UI thread, then refreshes the
+	 * notification. The list follows through {@link MessageChanges}.
+	 */
+	private abstract class WriteTask extends AsyncTask<Void, Void, Void> {
+		protected final Context context = getApplicationContext();
+		protected final NotificationRule rule = getRule();
+
+		@Override
+		protected void onPostExecute(Void result) {
+			if (!destroyed) {
+				updateNotifications();
+			}
+		}
+	}
+
+	private void closePages() {
+		for (Cursor page : pages) {
+			page.close();
+		}
+		pages.clear();
+	}
+
+	private TextWatcher searchWatcher = new TextWatcher() {
+		public void afterTextChanged(Editable text) {
+			String newText = text.toString().trim();
+			if (!newText.equals(searchText)) {
+				searchText = newText;
+				refreshView();
+			}
+		}
+
+		public void beforeTextChanged(CharSequence text, int start,
+				int count, int after) {
+		}
+
+		public void onTextChanged(CharSequence text, int start, int before,
+				int count) {
+		}
+	};
+
+	private OnScrollListener scrollListener = new OnScrollListener() {
+		public void onScroll(AbsListView view, int firstVisibleItem,
+				int visibleItemCount, int totalItemCount) {
+			if (!allPagesLoaded && totalItemCount > 0
+					&& firstVisibleItem + visibleItemCount >= totalItemCount
+							- PAGE_PRELOAD) {
+				loadNextPage();
+			}
+		}
+
+		public void onScrollStateChanged(AbsListView view, int scrollState) {
+		}
+	};
+
 	@Override
 	public void onCreateContextMenu(ContextMenu menu, View v,
 			ContextMenuInfo menuInfo) {
@@ -88,8 +355,14 @@ public class MessageList extends ListActivity {
 			// String menuItemName = menuItems[menuItemIndex];
 			// String listItemName = Countries[info.position];
 
-			NotificationMessage.FACTORY.deleteById(this, (int) info.id);
-			refreshView();
+			final long id = info.id;
+			new WriteTask() {
+				@Override
+				protected Void doInBackground(Void... params) {
+					NotificationMessage.FACTORY.deleteById(context, id);
+					return null;
+				}
+			}.execute();
 			return true;
 		default:
 			return super.onContextItemSelected(item);
@@ -104,8 +377,10 @@ public class MessageList extends ListActivity {
 			intentData.putExtra("ruleId", this.getRule().getId());
 		}
 		startService(intentData);
+	}
 
-		refreshView();
+	private boolean showsRule(long ruleId) {
+		return this.getRule() == null || this.getRule().getId() == ruleId;
 	}
 
 	public void onResume() {
@@ -125,10 +400,8 @@ public class MessageList extends ListActivity {
 			setTitle(getString(R.string.messages_all_title));
 		}
 
-		IntentFilter filterSend = new IntentFilter();
-		filterSend.addAction("com.alarmworkflow.eAlarm.revicedMessage");
-		registerReceiver(receiver, filterSend);
-		
+		MessageChanges.register(changes);
+
 		refreshView();
 	}
 
@@ -146,7 +419,7 @@ public class MessageList extends ListActivity {
 			Long ruleId = ruleIntent.getLongExtra("ruleId", 0);
 
 			if (ruleId > 0) {
-				this.rule = NotificationRule.FACTORY.get(this, ruleId);
+				this.rule = NotificationRule.FACTORY.getCached(this, ruleId);
 			}
 		}
 
@@ -181,27 +454,26 @@ public class MessageList extends ListActivity {
 		return super.onOptionsItemSelected(item);
 	}
 
-	public void deleteAll(boolean onlySeen) {
+	public void deleteAll(final boolean onlySeen) {
 		// Delete all messages. Optionally, those matching the given rule.
-		NotificationMessage.FACTORY.deleteMessagesByRule(this, rule,
-				onlySeen);
-		updateNotifications();
+		new WriteTask() {
+			@Override
+			protected Void doInBackground(Void... params) {
+				NotificationMessage.FACTORY.deleteMessagesByRule(context,
+						rule, onlySeen);
+				return null;
+			}
+		}.execute();
 	}
 
 	public void markAllAsSeen() {
-		Cursor cursor = NotificationMessage.FACTORY.cursorList(this,
-				this.getRule());
-		while (cursor.moveToNext()) {
-			String id = cursor.getString(cursor
-					.getColumnIndex(DatabaseAdapter.KEY_ID));
-			NotificationMessage message = NotificationMessage.FACTORY.get(this,
-					Long.parseLong(id));
-			if (!message.getSeen()) {
-
+		new WriteTask() {
+			@Override
+			protected Void doInBackground(Void... params) {
+				NotificationMessage.FACTORY.markAllAsSeen(context, rule);
+				return null;
 			}
-		}
-		NotificationMessage.FACTORY.markAllAsSeen(this, this.getRule());
-		updateNotifications();
+		}.execute();
 	}
 
 	/**
@@ -216,8 +488,30 @@ public class MessageList extends ListActivity {
 	}
 	public void onPause() {
         super.onPause();
-        this.unregisterReceiver(this.receiver);
+        MessageChanges.unregister(changes);
     }
+
+	public void onDestroy() {
+		super.onDestroy();
+		destroyed = true;
+		closePages();
+		locations.changeCursor(null);
+	}
+
+	/**
+	 * The loaded pages as one cursor. The pages are owned by the activity,
+	 * so replacing this cursor in the adapter must not close them.
+	 */
+	private static class PagedCursor extends MergeCursor {
+		PagedCursor(ArrayList<Cursor> pages) {
+			super(pages.toArray(new Cursor[pages.size()]));
+		}
+
+		@Override
+		public void close() {
+			// Pages are closed by closePages().
+		}
+	}
 	/**
 	 * List item view binding class - used to format dates and make the title
 	 * bold.
@@ -225,28 +519,35 @@ public class MessageList extends ListActivity {
 	 * @author daniel
 	 */
 	private class MessageViewBinder implements SimpleCursorAdapter.ViewBinder {
+		// Only used on the UI thread, so one formatter can be reused.
+		private final DateFormat formatter = DateFormat.getDateTimeInstance();
+		// Column indexes, resolved once per cursor.
+		private Cursor columnsCursor;
+		private int timestampColumn;
+		private int titleColumn;
+		private int seenColumn;
+
 		public boolean setViewValue(View view, Cursor cursor, int columnIndex) {
+			if (cursor != columnsCursor) {
+				timestampColumn = cursor
+						.getColumnIndex(DatabaseAdapter.KEY_TIMESTAMP_MS);
+				titleColumn = cursor.getColumnIndex(DatabaseAdapter.KEY_TITLE);
+				seenColumn = cursor.getColumnIndex(DatabaseAdapter.KEY_SEEN);
+				columnsCursor = cursor;
+			}
 			// Format the timestamp as local time.
-			if (columnIndex == cursor
-					.getColumnIndex(DatabaseAdapter.KEY_TIMESTAMP)) {
+			if (columnIndex == timestampColumn) {
 				TextView timestamp = (TextView) view;
-				try {
-					timestamp
-							.setText(NotificationMessage.formatUTCAsLocal(NotificationMessage.parseISO8601String(cursor.getString(cursor
-									.getColumnIndex(DatabaseAdapter.KEY_TIMESTAMP)))));
-				} catch (ParseException ex) {
-					timestamp.setText("UNKNOWN");
-				}
+				timestamp.setText(formatter.format(new Date(cursor
+						.getLong(columnIndex))));
 				return true;
 			}
 			// Make the title bold if it's unseen.
-			if (columnIndex == cursor.getColumnIndex(DatabaseAdapter.KEY_TITLE)) {
+			if (columnIndex == titleColumn) {
 				TextView title = (TextView) view;
-				title.setText(cursor.getString(cursor
-						.getColumnIndex(DatabaseAdapter.KEY_TITLE)));
+				title.setText(cursor.getString(columnIndex));
 
-				if (cursor.getLong(cursor
-						.getColumnIndex(DatabaseAdapter.KEY_SEEN)) == 0) {
+				if (cursor.getLong(seenColumn) == 0) {
 					title.setTypeface(Typeface.DEFAULT_BOLD);
 				} else {
 					title.setTypeface(Typeface.DEFAULT);
@@ -6,6 +6,8 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import com.alarmworkflow.eAlarm.database.NotificationRule;
 import android.app.AlertDialog;
@@ -74,6 +76,12 @@ public class RuleEditor extends PreferenceActivity {
 			values.put("rule_prio", thisActivity.rule.getPriority());
 			values.put("rule_open", thisActivity.rule.getOpen());
 			values.put("rule_unlock", thisActivity.rule.getUnlock());
+			values.put("rule_retention_days",
+					thisActivity.rule.getRetentionDays());
+			values.put("rule_retention_count",
+					thisActivity.rule.getRetentionCount());
+			values.put("rule_retention_keep_unseen",
+					thisActivity.rule.getRetentionKeepUnseen());
 			return values;
 		}
 
@@ -98,6 +106,8 @@ public class RuleEditor extends PreferenceActivity {
 				return thisActivity.rule.getOpen();
 			} else if (key.equals("rule_unlock")) {
 				return thisActivity.rule.getUnlock();
+			} else if (key.equals("rule_retention_keep_unseen")) {
+				return thisActivity.rule.getRetentionKeepUnseen();
 			}
 
 			return false;
@@ -111,6 +121,10 @@ public class RuleEditor extends PreferenceActivity {
 		public int getInt(String key, int defValue) {
 			if (key.equals("rule_prio")) {
 				return thisActivity.rule.getPriority();
+			} else if (key.equals("rule_retention_days")) {
+				return thisActivity.rule.getRetentionDays();
+			} else if (key.equals("rule_retention_count")) {
+				return thisActivity.rule.getRetentionCount();
 			}
 			return 0;
 		}
@@ -135,6 +149,10 @@ public class RuleEditor extends PreferenceActivity {
 				return thisActivity.rule.getSearchText();
 			} else if (key.equals("rule_prio")) {
 				return thisActivity.rule.getPriority() + "";
+			} else if (key.equals("rule_retention_days")) {
+				return thisActivity.rule.getRetentionDays() + "";
+			} else if (key.equals("rule_retention_count")) {
+				return thisActivity.rule.getRetentionCount() + "";
 			}
 
 			return null;
@@ -203,6 +221,8 @@ public class RuleEditor extends PreferenceActivity {
 					thisActivity.rule.setOpen(value);
 				} else if (key.equals("rule_unlock")) {
 					thisActivity.rule.setUnlock(value);
+				} else if (key.equals("rule_retention_keep_unseen")) {
+					thisActivity.rule.setRetentionKeepUnseen(value);
 				}
 
 				return this;
@@ -244,6 +264,10 @@ public class RuleEditor extends PreferenceActivity {
 					thisActivity.rule.setSearchText(value);
 				} else if (key.equals("rule_prio")) {
 					thisActivity.rule.setPriority(Integer.parseInt(value));
+				} else if (key.equals("rule_retention_days")) {
+					thisActivity.rule.setRetentionDays(parseLimit(value));
+				} else if (key.equals("rule_retention_count")) {
+					thisActivity.rule.setRetentionCount(parseLimit(value));
 				}
 				return this;
 			}
@@ -270,6 +294,21 @@ public class RuleEditor extends PreferenceActivity {
 		}
 	}
 
+	/**
+	 * Parse a retention limit, treating an empty or invalid value as no
+	 * limit.
+	 * 
+	 * @param value
+	 * @return
+	 */
+	private static int parseLimit(String value) {
+		try {
+			return Math.max(0, Integer.parseInt(value.trim()));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
 	public SharedPreferences getSharedPreferences(String name, int mode) {
 		return this.preferenceMapper;
 	}
@@ -286,6 +325,9 @@ public class RuleEditor extends PreferenceActivity {
 		// Find and attach the onclick handlers.
 		Preference titlePreference = this.findPreference("rule_title");
 		titlePreference.setOnPreferenceChangeListener(changeListener);
+		Preference searchTextPreference = this.findPreference("rule_searchtext");
+		searchTextPreference
+				.setOnPreferenceChangeListener(searchTextChangeListener);
 		Preference messagesPreference = this.findPreference("rule_messages");
 		messagesPreference.setOnPreferenceClickListener(messagesClickHandler);
 		Preference deletePreference = this.findPreference("rule_delete");
@@ -429,6 +471,24 @@ public class RuleEditor extends PreferenceActivity {
 			return true;
 		}
 	};
+	/**
+	 * Only accept a search text that is a valid pattern, so a typo is
+	 * reported here instead of silently disabling the rule.
+	 */
+	OnPreferenceChangeListener searchTextChangeListener = new OnPreferenceChangeListener() {
+		public boolean onPreferenceChange(Preference preference, Object newValue) {
+			try {
+				Pattern.compile((String) newValue);
+				return true;
+			} catch (PatternSyntaxException e) {
+				Toast.makeText(
+						getApplicationContext(),
+						String.format(getString(R.string.invalid_search_text),
+								e.getDescription()), Toast.LENGTH_LONG).show();
+				return false;
+			}
+		}
+	};
 	/**
 	 * View the messages of this rule.
 	 */
@@ -5,9 +5,11 @@ import java.util.List;
 
 import android.app.AlertDialog;
 import android.app.ListActivity;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.res.Configuration;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.text.Editable;
 import android.view.Menu;
@@ -19,8 +21,10 @@ import android.widget.EditText;
 import android.widget.ListView;
 
 import com.alarmworkflow.eAlarm.database.NotificationRule;
+import com.alarmworkflow.eAlarm.database.RuleRepository;
 
 public class RuleList extends ListActivity implements View.OnClickListener {
+	private boolean destroyed = false;
 
 	/** Called when the activity is first created. */
 	public void onCreate(Bundle savedInstanceState) {
@@ -57,15 +61,49 @@ public class RuleList extends ListActivity implements View.OnClickListener {
 
 	}
 
+	public void onDestroy() {
+		super.onDestroy();
+		destroyed = true;
+	}
+
 	/**
-	 * Refresh the list of rules viewed by this activity.
+	 * Refresh the list of rules viewed by this activity. The rules are
+	 * loaded in the background and shown when they arrive.
 	 */
 	public void refreshView() {
-		// Refresh our list of rules.
-		List<NotificationRule> rules = NotificationRule.FACTORY.listAll(this);
-		ArrayAdapter<NotificationRule> adapter = new ArrayAdapter<NotificationRule>(
-				this, android.R.layout.simple_list_item_1, rules);
-		this.setListAdapter(adapter);
+		new LoadRulesTask(null).execute();
+	}
+
+	/**
+	 * Loads the rules off the UI thread, optionally saving a new rule first,
+	 * and shows them in the list.
+	 */
+	private class LoadRulesTask extends
+			AsyncTask<Void, Void, List<NotificationRule>> {
+		private final Context context = getApplicationContext();
+		private final NotificationRule newRule;
+
+		LoadRulesTask(NotificationRule newRule) {
+			this.newRule = newRule;
+		}
+
+		@Override
+		protected List<NotificationRule> doInBackground(Void... params) {
+			if (newRule != null) {
+				newRule.save(context);
+			}
+			return RuleRepository.get(context).getRules();
+		}
+
+		@Override
+		protected void onPostExecute(List<NotificationRule> rules) {
+			if (destroyed) {
+				return;
+			}
+			ArrayAdapter<NotificationRule> adapter = new ArrayAdapter<NotificationRule>(
+					RuleList.this, android.R.layout.simple_list_item_1, rules);
+			setListAdapter(adapter);
+		}
 	}
 
 	@Override
@@ -127,8 +165,7 @@ public class RuleList extends ListActivity implements View.OnClickListener {
 		NotificationRule rule = new NotificationRule();
 		rule.setTitle(title);
 		rule.setLocalEnabled(true);
-		rule.save(this);
-		refreshView();
+		new LoadRulesTask(rule).execute();
 
 	}
 
@@ -1,7 +1,10 @@
 package com.alarmworkflow.eAlarm;
 
+import com.alarmworkflow.eAlarm.database.QueryStats;
 import com.google.android.gcm.GCMRegistrar;
 
+import android.app.AlertDialog;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.media.Ringtone;
@@ -24,6 +27,7 @@ public class Settings extends PreferenceActivity
 	private EditTextPreference delayReading;
 	private EditTextPreference shakeThreshold;
 	private EditTextPreference shakeWaitTime;
+	private EditTextPreference slowQueryThreshold;
 	private CheckBoxPreference playRingtone;
 	private CheckBoxPreference overwriteSystem;
 	private RingtonePreference ringtonePref;
@@ -64,6 +68,13 @@ public class Settings extends PreferenceActivity
 		shakeWaitTime.setOnPreferenceChangeListener(shakeWaitTimeHandler);
 		updateShakeWaitTimeSummary(settings.getString(getString(R.string.shakeWaitTime), "60"));
 		
+		slowQueryThreshold = (EditTextPreference) findPreference(getString(R.string.slowQueryThreshold));
+		slowQueryThreshold.setOnPreferenceChangeListener(slowQueryThresholdHandler);
+		updateSlowQueryThresholdSummary(settings.getString(getString(R.string.slowQueryThreshold), "50"));
+		
+		Preference queryStats = findPreference(getString(R.string.queryStats));
+		queryStats.setOnPreferenceClickListener(queryStatsHandler);
+		
 		playRingtone = (CheckBoxPreference) findPreference(getString(R.string.playRingtone));
 		
 		ringtonePref = (RingtonePreference) findPreference(getString(R.string.choosenNotification));
@@ -182,6 +193,44 @@ public class Settings extends PreferenceActivity
 		}
 	};
 
+	// On Preference change listener to apply the slow query threshold.
+	OnPreferenceChangeListener slowQueryThresholdHandler = new OnPreferenceChangeListener()
+	{
+		public boolean onPreferenceChange(Preference preference, Object newValue)
+		{
+			try
+			{
+				QueryStats.setSlowThresholdMs(Long.parseLong(newValue.toString()));
+			}
+			catch( NumberFormatException ex )
+			{
+				return false;
+			}
+			updateSlowQueryThresholdSummary((String) newValue);
+			return true;
+		}
+	};
+
+	// On click handler for showing the database statistics.
+	OnPreferenceClickListener queryStatsHandler = new OnPreferenceClickListener()
+	{
+		public boolean onPreferenceClick(Preference preference)
+		{
+			new AlertDialog.Builder(Settings.this)
+					.setTitle(R.string.query_stats)
+					.setMessage(QueryStats.getReport())
+					.setPositiveButton(android.R.string.ok, null)
+					.setNeutralButton(R.string.reset, new DialogInterface.OnClickListener()
+					{
+						public void onClick(DialogInterface dialog, int which)
+						{
+							QueryStats.reset();
+						}
+					}).show();
+			return true;
+		}
+	};
+
 	// Helper function to update the delay summary.
 	private void updateDelaySummary(String value)
 	{
@@ -222,6 +271,23 @@ public class Settings extends PreferenceActivity
 		}
 	}
 	
+	// Helper function to update the slow query threshold summary.
+	private void updateSlowQueryThresholdSummary(String value)
+	{
+		String template = getString(R.string.slow_query_threshold_summary);
+
+		try
+		{
+			Integer intValue = Integer.parseInt(value);
+			String result = String.format(template, intValue);
+			slowQueryThreshold.setSummary(result);
+		}
+		catch( NumberFormatException ex )
+		{
+			// Not a valid number... ignore.
+		}
+	}
+	
 	// Helper function to update the wait time summary.
 	private void updateShakeWaitTimeSummary(String value)
 	{
@@ -0,0 +1,87 @@
+package com.alarmworkflow.eAlarm.database;
+
+import java.util.TimeZone;
+
+/**
+ * The time of day in which a rule is active, as minutes after midnight.
+ *
+ * Plain Java without Android dependencies, so the edge cases can be tested
+ * off the device.
+ */
+public final class ActivationWindow {
+	static final int MINUTES_PER_DAY = 24 * 60;
+
+	// Minutes after midnight, -1 if the time was not valid.
+	private final int startMinute;
+	private final int stopMinute;
+
+	/**
+	 * @param startTime
+	 *            HH:mm, as stored by the rule editor.
+	 * @param stopTime
+	 *            HH:mm, as stored by the rule editor.
+	 */
+	public ActivationWindow(String startTime, String stopTime) {
+		this.startMinute = parseMinuteOfDay(startTime);
+		this.stopMinute = parseMinuteOfDay(stopTime);
+	}
+
+	/**
+	 * Check whether the window contains the given local time. It includes
+	 * the start minute and ends before the stop minute; if the stop time is
+	 * earlier than the start time it runs over midnight (e.g. 22:00 to
+	 * 06:00). Equal times or an unreadable time give an empty window, so a
+	 * rule that was never set up does not alarm.
+	 * 
+	 * @param minuteOfDay
+	 *            see {@link #minuteOfDay(long, TimeZone)}.
+	 * @return
+	 */
+	public boolean isActiveAt(int minuteOfDay) {
+		if (startMinute < 0 || stopMinute < 0) {
+			return false;
+		}
+		if (startMinute <= stopMinute) {
+			return minuteOfDay >= startMinute && minuteOfDay < stopMinute;
+		}
+		return minuteOfDay >= startMinute || minuteOfDay < stopMinute;
+	}
+
+	/**
+	 * Get the local wall-clock time as minutes after midnight, taking
+	 * daylight saving time at that instant into account.
+	 * 
+	 * @param timeMs
+	 * @param zone
+	 * @return
+	 */
+	public static int minuteOfDay(long timeMs, TimeZone zone) {
+		long localMs = timeMs + zone.getOffset(timeMs);
+		long minutes = localMs / 60000 % MINUTES_PER_DAY;
+		return (int) (minutes < 0 ? minutes + MINUTES_PER_DAY : minutes);
+	}
+
+	/**
+	 * Parse a time in the form HH:mm.
+	 * 
+	 * @param time
+	 * @return minutes after midnight, or -1 if the time is not valid.
+	 */
+	public static int parseMinuteOfDay(String time) {
+		if (time == null) {
+			return -1;
+		}
+		int colon = time.indexOf(':');
+		try {
+			int hours = Integer.parseInt(time.substring(0, colon).trim());
+			int minutes = Integer.parseInt(time.substring(colon + 1).trim());
+			if (hours < 0 || hours > 23 || minutes < 0 || minutes > 59) {
+				return -1;
+			}
+			return hours * 60 + minutes;
+		} catch (RuntimeException e) {
+			// No colon or not a number.
+			return -1;
+		}
+	}
+}
@@ -1,13 +1,23 @@
 package com.alarmworkflow.eAlarm.database;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.text.TextUtils;
 
 public class DatabaseAdapter extends ContentProvider {
 	public static final String PROVIDER_NAME_RULES = "com.alarmworkflow.eAlarm.provider.Rules";
@@ -41,6 +51,7 @@ public class DatabaseAdapter extends ContentProvider {
 	public static final String KEY_TITLE = "title";
 	public static final String KEY_RULE_ID = "rule_id";
 	public static final String KEY_TIMESTAMP = "timestamp";
+	public static final String KEY_TIMESTAMP_MS = "timestamp_ms";
 	public static final String KEY_MESSAGE = "message";
 	public static final String KEY_SEEN = "seen";
 	public static final String KEY_REQUIRES_SYNC = "requires_sync";
@@ -59,19 +70,24 @@ public class DatabaseAdapter extends ContentProvider {
 	public static final String KEY_SEARCHTEXT = "searchText";
 	public static final String KEY_OPEN = "open";
 	public static final String KEY_UNLOCK = "unlock";
+	public static final String KEY_RETENTION_DAYS = "retention_days";
+	public static final String KEY_RETENTION_COUNT = "retention_count";
+	public static final String KEY_RETENTION_KEEP_UNSEEN = "retention_keep_unseen";
 
 	public static final String[] RULE_PROJECTION = new String[] { KEY_ID,
 			KEY_STARTTIME, KEY_TITLE, KEY_STOPTIME, KEY_PRIORITY,
 			KEY_SEARCHTEXT, KEY_LOCAL_ENABLED, KEY_USE_GLOBAL_NOTIFICATION,
 			KEY_VIBRATE, KEY_TOAST, KEY_RINGTONE, KEY_CUSTOM_RINGTONE,
 			KEY_LED_FLASH, KEY_SPEAK_MESSAGE, KEY_OVERWRITE_SYSTEM, KEY_UNLOCK,
-			 KEY_OPEN };
+			 KEY_OPEN, KEY_RETENTION_DAYS, KEY_RETENTION_COUNT,
+			KEY_RETENTION_KEEP_UNSEEN };
 
 	public static final String[] MESSAGE_PROJECTION = new String[] { KEY_ID,
-			KEY_RULE_ID, KEY_TIMESTAMP, KEY_TITLE, KEY_MESSAGE, KEY_CONTENT,
-			KEY_SEEN };
+			KEY_RULE_ID, KEY_TIMESTAMP, KEY_TIMESTAMP_MS, KEY_TITLE, KEY_MESSAGE,
+			KEY_CONTENT, KEY_SEEN };
 
-	private SQLiteDatabase db;
+	// URIs changed by the applyBatch() running on this thread.
+	private final ThreadLocal<LinkedHashSet<Uri>> batchNotifications = new ThreadLocal<LinkedHashSet<Uri>>();
 
 	private static final String DATABASE_CREATE_RULES = "create table RULES (_id integer primary key autoincrement, "
 			+ "title text not null, "
@@ -89,23 +105,127 @@ public class DatabaseAdapter extends ContentProvider {
 			+ "priority integer not null,"
 			+ "speak_message integer not null, "
 			+ "open integer not null,"
-			+ "unlock integer not null" + ");";
+			+ "unlock integer not null,"
+			+ "retention_days integer not null default 0,"
+			+ "retention_count integer not null default 0,"
+			+ "retention_keep_unseen integer not null default 1" + ");";
 
 	private static final String DATABASE_CREATE_MESSAGES = "create table messages (_id integer primary key autoincrement, "
 			+ "rule_id integer not null, "
 			+ "timestamp text not null, "
+			+ "timestamp_ms integer not null default 0, "
 			+ "title text not null, "
 			+ "message text not null, "
 			+ "content text not null," + "seen integer not null " + ");";
 
+	private static final String DATABASE_CREATE_MESSAGES_TIMESTAMP_INDEX = "create index if not exists messages_timestamp_ms on messages (timestamp_ms);";
+
+	// Indexes for the unread counts, per-rule lists and per-rule deletes.
+	private static final String[] DATABASE_CREATE_MESSAGES_INDEXES = new String[] {
+			"create index if not exists messages_rule_seen_time on messages (rule_id, seen, timestamp_ms);",
+			"create index if not exists messages_rule_time on messages (rule_id, timestamp_ms);",
+			"create index if not exists messages_seen on messages (seen);" };
+
+	// Unread messages per rule, kept in sync by triggers in the same
+	// transaction as every insert, seen-flag update and delete.
+	private static final String[] DATABASE_CREATE_RULE_UNREAD = new String[] {
+			"create table if not exists rule_unread (rule_id integer primary key, unread integer not null);",
+			"create trigger if not exists messages_unread_insert after insert on messages when new.seen = 0 begin "
+					+ "insert or ignore into rule_unread (rule_id, unread) values (new.rule_id, 0); "
+					+ "update rule_unread set unread = unread + 1 where rule_id = new.rule_id; end;",
+			"create trigger if not exists messages_unread_delete after delete on messages when old.seen = 0 begin "
+					+ "update rule_unread set unread = unread - 1 where rule_id = old.rule_id; end;",
+			"create trigger if not exists messages_unread_update after update of seen, rule_id on messages when old.seen = 0 or new.seen = 0 begin "
+					+ "update rule_unread set unread = unread - 1 where rule_id = old.rule_id and old.seen = 0; "
+					+ "insert or ignore into rule_unread (rule_id, unread) values (new.rule_id, 0); "
+					+ "update rule_unread set unread = unread + 1 where rule_id = new.rule_id and new.seen = 0; end;" };
+
 	public static final String DATABASE_NAME = "eAlarm.db";
 
-	private static final int DATABASE_VERSION = 7;
+	/**
+	 * The schema history, ordered by version. The database version is that
+	 * of the last step; to change the schema, append a step.
+	 */
+	private static final Migration[] MIGRATIONS = new Migration[] {
+			// v7: open and unlock options.
+			new Migration(7) {
+				void migrate(SQLiteDatabase db) {
+					db.execSQL("ALTER TABLE RULES ADD open integer not null DEFAULT(0)");
+					db.execSQL("ALTER TABLE RULES ADD unlock integer not null DEFAULT(0)");
+				}
+			},
+			// v8: integer epoch timestamp, backfilled from the ISO text
+			// 'yyyy-MM-dd'T'HH:mm:ss.SSSSSS' (UTC, milliseconds padded to
+			// six digits). A text strftime() cannot parse takes the time of
+			// the closest earlier message, or 0 if there is none; NULL would
+			// abort the whole upgrade.
+			new Migration(8) {
+				void migrate(SQLiteDatabase db) {
+					db.execSQL("ALTER TABLE messages ADD timestamp_ms integer not null DEFAULT(0)");
+					db.execSQL("UPDATE messages SET timestamp_ms = coalesce("
+							+ "CAST(strftime('%s', substr(timestamp, 1, 19)) AS INTEGER) * 1000 "
+							+ "+ CAST(substr(timestamp, 21) AS INTEGER), 0)");
+					db.execSQL("UPDATE messages SET timestamp_ms = coalesce("
+							+ "(SELECT m.timestamp_ms FROM messages m WHERE m._id < messages._id AND m.timestamp_ms > 0 "
+							+ "ORDER BY m._id DESC LIMIT 1), 0) WHERE timestamp_ms = 0");
+					db.execSQL(DATABASE_CREATE_MESSAGES_TIMESTAMP_INDEX);
+				}
+			},
+			// v9: indexes on rule_id and seen.
+			new Migration(9) {
+				void migrate(SQLiteDatabase db) {
+					for (String index : DATABASE_CREATE_MESSAGES_INDEXES) {
+						db.execSQL(index);
+					}
+				}
+			},
+			// v10: per-rule unread counters.
+			new Migration(10) {
+				void migrate(SQLiteDatabase db) {
+					for (String statement : DATABASE_CREATE_RULE_UNREAD) {
+						db.execSQL(statement);
+					}
+					db.execSQL("INSERT INTO rule_unread (rule_id, unread) "
+							+ "SELECT rule_id, count(*) FROM messages WHERE seen = 0 GROUP BY rule_id");
+				}
+			},
+			// v11: full-text search index. Existing messages are indexed
+			// in the background by MessageBackfill.
+			new Migration(11) {
+				void migrate(SQLiteDatabase db) {
+					for (String statement : MessageSearchIndex.DATABASE_CREATE) {
+						db.execSQL(statement);
+					}
+					MessageBackfill.schedule(db, MessageSearchIndex.TABLE);
+				}
+			},
+			// v12: per-rule retention policy, keeping everything by default.
+			new Migration(12) {
+				void migrate(SQLiteDatabase db) {
+					db.execSQL("ALTER TABLE RULES ADD retention_days integer not null DEFAULT(0)");
+					db.execSQL("ALTER TABLE RULES ADD retention_count integer not null DEFAULT(0)");
+					db.execSQL("ALTER TABLE RULES ADD retention_keep_unseen integer not null DEFAULT(1)");
+				}
+			},
+			// v13: content fields as key/value rows, filled for existing
+			// messages in the background by MessageBackfill.
+			new Migration(13) {
+				void migrate(SQLiteDatabase db) {
+					for (String statement : MessageFields.DATABASE_CREATE) {
+						db.execSQL(statement);
+					}
+					MessageBackfill.schedule(db, MessageFields.TABLE);
+				}
+			} };
+
+	private static final int DATABASE_VERSION = MIGRATIONS[MIGRATIONS.length - 1]
+			.getVersion();
 
 	/**
-	 * Database helper class to create and manage the schema.
+	 * Database helper class to create and manage the schema. Use
+	 * {@link DatabaseManager} to obtain the shared connection.
 	 */
-	private static class DatabaseHelper extends SQLiteOpenHelper {
+	static class DatabaseHelper extends SQLiteOpenHelper {
 		DatabaseHelper(Context context) {
 			super(context, DATABASE_NAME, null, DATABASE_VERSION);
 		}
@@ -114,21 +234,24 @@ public class DatabaseAdapter extends ContentProvider {
 		public void onCreate(SQLiteDatabase db) {
 			db.execSQL(DATABASE_CREATE_RULES);
 			db.execSQL(DATABASE_CREATE_MESSAGES);
+			db.execSQL(DATABASE_CREATE_MESSAGES_TIMESTAMP_INDEX);
+			for (String index : DATABASE_CREATE_MESSAGES_INDEXES) {
+				db.execSQL(index);
+			}
+			for (String statement : DATABASE_CREATE_RULE_UNREAD) {
+				db.execSQL(statement);
+			}
+			for (String statement : MessageSearchIndex.DATABASE_CREATE) {
+				db.execSQL(statement);
+			}
+			for (String statement : MessageFields.DATABASE_CREATE) {
+				db.execSQL(statement);
+			}
 		}
 
 		@Override
 		public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-			// Upgrading from v1 (during BETA) to v3.
-			if (oldVersion < 7) {
-				db.execSQL("ALTER TABLE RULES ADD open integer not null DEFAULT(0)");
-				db.execSQL("ALTER TABLE RULES ADD unlock integer not null DEFAULT(0)");
-			} else {
-				db.execSQL("DROP TABLE RULES;");
-				db.execSQL("DROP TABLE messages;");
-				db.execSQL(DATABASE_CREATE_RULES);
-				db.execSQL(DATABASE_CREATE_MESSAGES);
-			}
-
+			Migration.run(db, MIGRATIONS, oldVersion, newVersion);
 		}
 	}
 
@@ -151,38 +274,219 @@ public class DatabaseAdapter extends ContentProvider {
 		}
 	}
 
+	/**
+	 * The database is opened on first use rather than in onCreate(), which
+	 * runs on the main thread at process start.
+	 */
 	@Override
 	public boolean onCreate() {
-		Context context = getContext();
-		DatabaseHelper dbHelper = new DatabaseHelper(context);
-		db = dbHelper.getWritableDatabase();
-		return (db == null) ? false : true;
+		return true;
+	}
+
+	private SQLiteDatabase getDatabase() {
+		return DatabaseManager.getInstance(getContext()).getDatabase();
+	}
+
+	/**
+	 * Get the table that backs the given URI.
+	 * 
+	 * @param uri
+	 * @return
+	 */
+	private String getTableFor(Uri uri) {
+		switch (uriMatcher.match(uri)) {
+		case RULES:
+		case RULE_ID:
+			return DatabaseObject.DATABASE_TABLE_RULES;
+		case MESSAGES:
+		case MESSAGE_ID:
+			return DatabaseObject.DATABASE_TABLE_MESSAGES;
+		default:
+			throw new IllegalArgumentException("Unsupported URI: " + uri);
+		}
+	}
+
+	/**
+	 * Get the directory URI for the table that backs the given URI.
+	 * 
+	 * @param uri
+	 * @return
+	 */
+	private Uri getContentUriFor(Uri uri) {
+		switch (uriMatcher.match(uri)) {
+		case RULES:
+		case RULE_ID:
+			return CONTENT_URI_RULES;
+		case MESSAGES:
+		case MESSAGE_ID:
+			return CONTENT_URI_MESSAGES;
+		default:
+			throw new IllegalArgumentException("Unsupported URI: " + uri);
+		}
+	}
+
+	/**
+	 * Restrict the selection to a single row if the URI points at an item.
+	 * 
+	 * @param uri
+	 * @param selection
+	 * @return
+	 */
+	private String getSelectionFor(Uri uri, String selection) {
+		switch (uriMatcher.match(uri)) {
+		case RULE_ID:
+		case MESSAGE_ID:
+			String idSelection = KEY_ID + "=" + ContentUris.parseId(uri);
+			if (TextUtils.isEmpty(selection)) {
+				return idSelection;
+			}
+			return idSelection + " AND (" + selection + ")";
+		default:
+			return selection;
+		}
 	}
 
 	@Override
 	public Cursor query(Uri uri, String[] projection, String selection,
 			String[] selectionArgs, String sortOrder) {
-		// TODO Auto-generated method stub
-		return null;
+		SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+		builder.setTables(getTableFor(uri));
+		Cursor cursor = builder.query(getDatabase(), projection,
+				getSelectionFor(uri, selection), selectionArgs, null, null,
+				sortOrder);
+		cursor.setNotificationUri(getContext().getContentResolver(), uri);
+		return cursor;
 	}
 
 	@Override
 	public Uri insert(Uri uri, ContentValues values) {
-		// TODO Auto-generated method stub
-		return null;
+		Uri result = insertRow(uri, values);
+		notifyChange(result);
+		return result;
+	}
+
+	/**
+	 * Notify observers of a change, or, inside
+	 * {@link #applyBatch(ArrayList)}, once the batch has committed.
+	 * 
+	 * @param uri
+	 */
+	private void notifyChange(Uri uri) {
+		LinkedHashSet<Uri> batch = batchNotifications.get();
+		if (batch != null) {
+			batch.add(uri);
+		} else {
+			getContext().getContentResolver().notifyChange(uri, null);
+		}
+	}
+
+	/**
+	 * Insert a single row without notifying observers. A message is written
+	 * together with its search index and field rows in one transaction.
+	 * 
+	 * @param uri
+	 * @param values
+	 * @return
+	 */
+	private Uri insertRow(Uri uri, ContentValues values) {
+		switch (uriMatcher.match(uri)) {
+		case RULES:
+		case MESSAGES:
+			break;
+		default:
+			throw new IllegalArgumentException("Unsupported URI: " + uri);
+		}
+		SQLiteDatabase db = getDatabase();
+		long rowID;
+		db.beginTransaction();
+		try {
+			rowID = db.insert(getTableFor(uri), "", values);
+			if (rowID <= 0) {
+				throw new SQLException("Failed to insert row into " + uri);
+			}
+			if (uriMatcher.match(uri) == MESSAGES) {
+				db.execSQL(MessageSearchIndex.INSERT, MessageSearchIndex
+						.getRow(rowID, values.getAsString(KEY_TITLE),
+								values.getAsString(KEY_MESSAGE),
+								values.getAsString(KEY_CONTENT)));
+				for (Object[] row : MessageFields.getRows(rowID,
+						values.getAsString(KEY_CONTENT))) {
+					db.execSQL(MessageFields.INSERT, row);
+				}
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+		return ContentUris.withAppendedId(getContentUriFor(uri), rowID);
+	}
+
+	/**
+	 * Insert all rows in a single transaction, so a burst of rows costs one
+	 * commit instead of one per row.
+	 */
+	@Override
+	public int bulkInsert(Uri uri, ContentValues[] values) {
+		SQLiteDatabase db = getDatabase();
+		db.beginTransaction();
+		try {
+			for (ContentValues row : values) {
+				insertRow(uri, row);
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+		getContext().getContentResolver().notifyChange(uri, null);
+		return values.length;
+	}
+
+	/**
+	 * Apply all operations in a single transaction. If one operation fails,
+	 * none of them are committed. Observers are notified after the commit,
+	 * so they never re-query uncommitted or rolled back rows.
+	 */
+	@Override
+	public ContentProviderResult[] applyBatch(
+			ArrayList<ContentProviderOperation> operations)
+			throws OperationApplicationException {
+		LinkedHashSet<Uri> changed = new LinkedHashSet<Uri>();
+		ContentProviderResult[] results;
+		SQLiteDatabase db = getDatabase();
+		batchNotifications.set(changed);
+		db.beginTransaction();
+		try {
+			results = super.applyBatch(operations);
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+			batchNotifications.set(null);
+		}
+		for (Uri uri : changed) {
+			getContext().getContentResolver().notifyChange(uri, null);
+		}
+		return results;
 	}
 
 	@Override
 	public int delete(Uri uri, String selection, String[] selectionArgs) {
-		// TODO Auto-generated method stub
-		return 0;
+		int count = getDatabase().delete(getTableFor(uri),
+				getSelectionFor(uri, selection), selectionArgs);
+		if (count > 0) {
+			notifyChange(uri);
+		}
+		return count;
 	}
 
 	@Override
 	public int update(Uri uri, ContentValues values, String selection,
 			String[] selectionArgs) {
-		// TODO Auto-generated method stub
-		return 0;
+		int count = getDatabase().update(getTableFor(uri), values,
+				getSelectionFor(uri, selection), selectionArgs);
+		if (count > 0) {
+			notifyChange(uri);
+		}
+		return count;
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,70 @@
+package com.alarmworkflow.eAlarm.database;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+/**
+ * Process-wide owner of the eAlarm database connection.
+ *
+ * All database access goes through the single writable handle returned by
+ * {@link #getDatabase()}. The handle is opened once and kept open for the
+ * lifetime of the process, so it must never be closed by callers.
+ */
+public final class DatabaseManager {
+	private static DatabaseManager instance;
+
+	private final DatabaseAdapter.DatabaseHelper helper;
+	private final boolean debuggable;
+	private SQLiteDatabase database;
+
+	private DatabaseManager(Context context) {
+		this.helper = new DatabaseAdapter.DatabaseHelper(context);
+		this.debuggable = (context.getApplicationInfo().flags
+				& ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+	}
+
+	/**
+	 * Get the shared manager, creating it on first use.
+	 *
+	 * @param context
+	 * @return
+	 */
+	public static synchronized DatabaseManager getInstance(Context context) {
+		if (DatabaseManager.instance == null) {
+			DatabaseManager.instance = new DatabaseManager(
+					context.getApplicationContext());
+		}
+		return DatabaseManager.instance;
+	}
+
+	/**
+	 * Get the shared writable database, opening (and creating or upgrading)
+	 * it on first use.
+	 *
+	 * @return
+	 */
+	@SuppressLint("NewApi")
+	public synchronized SQLiteDatabase getDatabase() {
+		if (this.database == null || !this.database.isOpen()) {
+			SQLiteDatabase db = this.helper.getWritableDatabase();
+			// Write-ahead logging lets readers (list screens, notification
+			// service) run while the GCM thread is writing a new alarm.
+			if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+				db.enableWriteAheadLogging();
+			}
+			this.database = db;
+
+			// Report hot queries that have lost their index.
+			if (this.debuggable) {
+				QueryPlanCheck.run(db);
+			}
+
+			// Fill the index tables of messages from before an upgrade.
+			MessageBackfill.startIfPending(db);
+		}
+		return this.database;
+	}
+}
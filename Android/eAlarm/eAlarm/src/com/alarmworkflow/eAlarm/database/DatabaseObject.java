@@ -1,6 +1,7 @@
 package com.alarmworkflow.eAlarm.database;
 
 import java.util.ArrayList;
+import java.util.Collection;
 
 import android.content.ContentUris;
 import android.content.ContentValues;
@@ -41,21 +42,6 @@ public abstract class DatabaseObject<T>
     }
     
 	
-	private Uri getContentUriFor( Uri uri )
-	{
-		switch( uriMatcher.match(uri) )
-		{
-			case RULES:
-			case RULES_ID:
-				return CONTENT_URI_RULES;
-			case MESSAGES:
-			case MESSAGE_ID:
-				return CONTENT_URI_MESSAGES;
-			default:
-				throw new IllegalArgumentException("Unsupported URI: " + uri);
-		}
-	}	
-	
 	private String getTableFor( Uri uri )
 	{
 		switch( uriMatcher.match(uri) )
@@ -70,6 +56,35 @@ public abstract class DatabaseObject<T>
 				throw new IllegalArgumentException("Unsupported URI: " + uri);
 		}
 	}
+	/**
+	 * Get the shared database connection.
+	 * @param context
+	 * @return
+	 */
+	protected SQLiteDatabase getDatabase( Context context )
+	{
+		return DatabaseManager.getInstance(context).getDatabase();
+	}
+	
+	/**
+	 * Get the table of this ORM type.
+	 * @return
+	 */
+	protected String getTable()
+	{
+		return this.getTableFor(this.getContentUri());
+	}
+	
+	/**
+	 * Get the precompiled statements for this ORM type.
+	 * @param context
+	 * @return
+	 */
+	StatementCache getStatements( Context context )
+	{
+		return StatementCache.forTable(this.getDatabase(context), this.getTable(), this.getProjection());
+	}
+	
 	/**
 	 * The ID of this object.
 	 */
@@ -81,28 +96,73 @@ public abstract class DatabaseObject<T>
 	 */
 	public void save( Context context )
 	{
-		SQLiteDatabase db = context.openOrCreateDatabase(DATABASE_NAME, 0, null);
+		StatementCache statements = this.getStatements(context);
+		long started = QueryStats.start();
 		if( this.getId() == null )
 		{
-			// Insert.
+			// Insert, together with any side tables of this type.
 			ContentValues values = this.flatten();
-			long rowID = db.insert(this.getTableFor(this.getContentUri()), "", values);
-			
-			// And on success...
-			if( rowID > 0 )
+			SQLiteDatabase db = this.getDatabase(context);
+			db.beginTransaction();
+			try
 			{
-				Uri uri = ContentUris.withAppendedId(this.getContentUriFor(this.getContentUri()), rowID);
-				this.setId(Long.parseLong(uri.getPathSegments().get(1)));
+				long rowID = statements.insert(values);
+				
+				// And on success...
+				if( rowID > 0 )
+				{
+					this.setId(rowID);
+					this.afterInsert(context);
+				}
+				db.setTransactionSuccessful();
+			}
+			finally
+			{
+				db.endTransaction();
 			}
+			QueryStats.record(QueryStats.INSERT, this.getTable(), null, started);
 		}
 		else
 		{
 			// Update.
 			ContentValues values = this.flatten();	
-			db.update(this.getTableFor(this.getContentUri()), values, DatabaseAdapter.KEY_ID + "=" + this.getId(), null);
+			statements.updateById(this.getId(), values);
+			QueryStats.record(QueryStats.UPDATE, this.getTable(), "_id=?", started);
 		}
 	}
 	
+	/**
+	 * Save all given objects in a single transaction: either all of them are
+	 * stored or none is, and the batch costs one commit.
+	 * @param context
+	 * @param objects
+	 */
+	public void saveAll( Context context, Collection<? extends DatabaseObject<T>> objects )
+	{
+		SQLiteDatabase db = this.getDatabase(context);
+		db.beginTransaction();
+		try
+		{
+			for( DatabaseObject<T> object : objects )
+			{
+				object.save(context);
+			}
+			db.setTransactionSuccessful();
+		}
+		finally
+		{
+			db.endTransaction();
+		}
+	}
+	
+	/**
+	 * Called after this object was inserted, inside the insert's transaction.
+	 * @param context
+	 */
+	protected void afterInsert( Context context )
+	{
+	}
+	
 	/**
 	 * Get the URI of this item.
 	 * @return
@@ -118,8 +178,7 @@ public abstract class DatabaseObject<T>
 	 */
 	public void delete( Context context )
 	{
-		SQLiteDatabase db = context.openOrCreateDatabase(DATABASE_NAME, 0, null);
-		db.delete(this.getTableFor(this.getContentUri()), DatabaseAdapter.KEY_ID + "=" + this.getId(), null);
+		this.deleteById(context, this.getId());
 	}
 	
 	/**
@@ -129,8 +188,9 @@ public abstract class DatabaseObject<T>
 	 */
 	public void deleteById( Context context, Long id )
 	{
-		SQLiteDatabase db = context.openOrCreateDatabase(DATABASE_NAME, 0, null);
-		db.delete(this.getTableFor(this.getContentUri()), DatabaseAdapter.KEY_ID + "=" + id, null);
+		long started = QueryStats.start();
+		this.getStatements(context).deleteById(id);
+		QueryStats.record(QueryStats.DELETE, this.getTable(), "_id=?", started);
 	}
 	
 	/**
@@ -141,8 +201,28 @@ public abstract class DatabaseObject<T>
 	 */
 	protected void genericDelete( Context context, String selection, String[] selectionArgs )
 	{
-		SQLiteDatabase db = context.openOrCreateDatabase(DATABASE_NAME, 0, null);
-		db.delete(this.getTableFor(this.getContentUri()), selection, selectionArgs);
+		long started = QueryStats.start();
+		SQLiteDatabase db = this.getDatabase(context);
+		db.delete(this.getTable(), selection, selectionArgs);
+		QueryStats.record(QueryStats.DELETE, this.getTable(), selection, started);
+	}
+	
+	/**
+	 * Run a query for a cursor, such as for a list adapter. The cursor is
+	 * filled before it is returned, so the time spent is recorded in the
+	 * query statistics.
+	 * @param context
+	 * @param sql
+	 * @param selectionArgs
+	 * @return
+	 */
+	protected Cursor timedQuery( Context context, String sql, String[] selectionArgs )
+	{
+		long started = QueryStats.start();
+		Cursor cursor = this.getDatabase(context).rawQuery(sql, selectionArgs);
+		cursor.getCount();
+		QueryStats.record(QueryStats.QUERY, this.getTable(), sql, started);
+		return cursor;
 	}
 	
 	/**
@@ -153,7 +233,7 @@ public abstract class DatabaseObject<T>
 	 */
 	public T get( Context context, Long id )
 	{
-		return this.getOne(context, DatabaseAdapter.KEY_ID + "=" + id, null);
+		return this.getOne(context, DatabaseAdapter.KEY_ID + "=?", new String[] { String.valueOf(id) });
 	}
 	
 	/**
@@ -176,7 +256,8 @@ public abstract class DatabaseObject<T>
 
 	
 	/**
-	 * List entries from the database, inflating them as required.
+	 * List entries from the database, inflating them as required. The
+	 * selection must use '?' placeholders for its arguments.
 	 * @param context
 	 * @param selection
 	 * @param selectionArgs
@@ -185,58 +266,29 @@ public abstract class DatabaseObject<T>
 	 */
 	protected ArrayList<T> genericList( Context context, String selection, String[] selectionArgs, String sortOrder )
 	{
-		String table = this.getTableFor(this.getContentUri());
-		String fields = "";
-		for(int i=0; i< this.getProjection().length; i++)
-		{
-			fields += this.getProjection()[i];
-		    if(i < this.getProjection().length - 1)
-		    	fields += ",";
-		}
-		
-		String query = "select " + fields + " from " + table; 
-		
-		if(selection != null && selection != "")
-		{
-			if(selection.contains("?"))
-			{
-				StringBuffer s1 = new StringBuffer(selection);
-				int i=0;
-				int index = s1.indexOf("?");
-				while(index >= 0)
-				{
-					s1.replace(index, index+1, "'" + selectionArgs[i] + "'");
-					i++;
-					index = s1.indexOf("?", index+1);
-				}
-				selection = s1.toString();
-			}
-			
-			query += " where " + selection;
-		}
-		
-		if(sortOrder != null && sortOrder != "")
-			query += " order by " + sortOrder;
-
-		SQLiteDatabase db = context.openOrCreateDatabase(DATABASE_NAME, 0, null);
-		Cursor cursor = db.rawQuery(query, null);
+		long started = QueryStats.start();
+		String query = this.getStatements(context).getQuery(selection, sortOrder);
+		Cursor cursor = this.getDatabase(context).rawQuery(query, selectionArgs);
 				
 		ArrayList<T> result = new ArrayList<T>();
 		if( cursor.moveToFirst() )
 		{
+			int[] columns = this.getColumnIndexes(cursor);
 			do
 			{
-				result.add(this.inflate(context, cursor));
+				result.add(this.inflate(context, cursor, columns));
 			}
 			while( cursor.moveToNext() );
 		}
 		cursor.close();
+		QueryStats.record(QueryStats.LIST, this.getTable(), query, started);
 		return result;
 	}
 	
 	
 	/**
-	 * Count entries from the database, without inflating them.
+	 * Count entries from the database, without inflating them. The selection
+	 * must use '?' placeholders for its arguments.
 	 * @param context
 	 * @param selection
 	 * @param selectionArgs
@@ -244,41 +296,9 @@ public abstract class DatabaseObject<T>
 	 */
 	protected int genericCount( Context context, String selection, String[] selectionArgs )
 	{
-		String table = this.getTableFor(this.getContentUri());
-		String fields = "";
-		for(int i=0; i< this.getProjection().length; i++)
-		{
-			fields += this.getProjection()[i];
-		    if(i < this.getProjection().length - 1)
-		    	fields += ",";
-		}
-		String query = "select " + fields + " from " + table; 
-		
-		if(selection != null && selection != "")
-		{
-			if(selection.contains("?"))
-			{
-				StringBuffer s1 = new StringBuffer(selection);
-				int i=0;
-				int index = s1.indexOf("?");
-				while(index >= 0)
-				{
-					s1.replace(index, index+1, "'" + selectionArgs[i] + "'");
-					i++;
-					index = s1.indexOf("?", index+1);
-				}
-				selection = s1.toString();
-			}
-			
-			query += " where " + selection;
-		}
-
-		SQLiteDatabase db = context.openOrCreateDatabase(DATABASE_NAME, 0, null);
-		Cursor cursor = db.rawQuery(query, null);
-		
-		int count = cursor.getCount();
-		
-		cursor.close();
+		long started = QueryStats.start();
+		int count = (int) this.getStatements(context).count(selection, selectionArgs);
+		QueryStats.record(QueryStats.COUNT, this.getTable(), selection, started);
 		return count;
 	}	
 	
@@ -319,7 +339,34 @@ public abstract class DatabaseObject<T>
 	 * @param cursor
 	 * @return
 	 */
-	protected abstract T inflate( Context context, Cursor cursor );
+	protected T inflate( Context context, Cursor cursor )
+	{
+		return this.inflate(context, cursor, this.getColumnIndexes(cursor));
+	}
+	/**
+	 * Inflate this object from the given cursor, using column indexes
+	 * resolved once per cursor by {@link #getColumnIndexes(Cursor)}.
+	 * @param cursor
+	 * @param columns
+	 * @return
+	 */
+	protected abstract T inflate( Context context, Cursor cursor, int[] columns );
+	/**
+	 * Resolve the index of every projection column in the given cursor, in
+	 * projection order.
+	 * @param cursor
+	 * @return
+	 */
+	protected int[] getColumnIndexes( Cursor cursor )
+	{
+		String[] projection = this.getProjection();
+		int[] columns = new int[projection.length];
+		for( int i = 0; i < projection.length; i++ )
+		{
+			columns[i] = cursor.getColumnIndex(projection[i]);
+		}
+		return columns;
+	}
 	/**
 	 * Get the projection required when querying this object.
 	 * @return
@@ -0,0 +1,161 @@
+package com.alarmworkflow.eAlarm.database;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * Fills the search index and the field rows of messages stored before
+ * those tables existed.
+ *
+ * A schema step only records the highest message ID of the moment in the
+ * message_backfill table; messages inserted later are indexed as they are
+ * written. A background thread then works through the older messages,
+ * newest first, in batches of {@link #BATCH_SIZE}. Each batch and its
+ * progress are committed in one short transaction, so an interrupted
+ * backfill resumes where it stopped the next time the database is opened,
+ * and an incoming alarm never waits long for the write lock. Until it is
+ * done, searches do not find the older messages.
+ */
+final class MessageBackfill {
+	private static final String TAG = "eAlarm";
+	private static final String TABLE = "message_backfill";
+	private static final int BATCH_SIZE = 200;
+
+	private static final String BATCH_QUERY = "select "
+			+ DatabaseAdapter.KEY_ID + "," + DatabaseAdapter.KEY_TITLE + ","
+			+ DatabaseAdapter.KEY_MESSAGE + "," + DatabaseAdapter.KEY_CONTENT
+			+ " from " + DatabaseObject.DATABASE_TABLE_MESSAGES + " where "
+			+ DatabaseAdapter.KEY_ID + "<=? order by " + DatabaseAdapter.KEY_ID
+			+ " DESC limit " + BATCH_SIZE;
+
+	private static boolean running = false;
+
+	private MessageBackfill() {
+	}
+
+	/**
+	 * Record that all messages stored so far need rows in the given table.
+	 * Called by the schema step that creates the table, inside the upgrade.
+	 *
+	 * @param db
+	 * @param table
+	 *            {@link MessageSearchIndex#TABLE} or
+	 *            {@link MessageFields#TABLE}.
+	 */
+	static void schedule(SQLiteDatabase db, String table) {
+		db.execSQL("create table if not exists " + TABLE
+				+ " (name text primary key, next_id integer not null);");
+		db.execSQL("insert or replace into " + TABLE
+				+ " (name, next_id) select ?, coalesce(max("
+				+ DatabaseAdapter.KEY_ID + "), 0) from "
+				+ DatabaseObject.DATABASE_TABLE_MESSAGES,
+				new Object[] { table });
+	}
+
+	/**
+	 * Start the background thread if there is anything left to fill. Cheap
+	 * enough to call on every open.
+	 *
+	 * @param db
+	 */
+	static void startIfPending(final SQLiteDatabase db) {
+		synchronized (MessageBackfill.class) {
+			if (running || !isPending(db)) {
+				return;
+			}
+			running = true;
+		}
+		new Thread(new Runnable() {
+			public void run() {
+				Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+				try {
+					runAll(db);
+				} catch (SQLException e) {
+					// Resumed on the next start.
+					Log.w(TAG, "Message backfill interrupted", e);
+				} finally {
+					synchronized (MessageBackfill.class) {
+						running = false;
+					}
+				}
+			}
+		}, "eAlarm message backfill").start();
+	}
+
+	private static boolean isPending(SQLiteDatabase db) {
+		return DatabaseUtils.longForQuery(db,
+				"select count(*) from sqlite_master where type='table' and name=?",
+				new String[] { TABLE }) > 0;
+	}
+
+	/**
+	 * Fill all pending tables to the end, then drop the bookkeeping table.
+	 *
+	 * @param db
+	 */
+	static void runAll(SQLiteDatabase db) {
+		while (true) {
+			Cursor cursor = db.rawQuery("select name, next_id from " + TABLE
+					+ " limit 1", null);
+			String table;
+			long nextId;
+			try {
+				if (!cursor.moveToFirst()) {
+					break;
+				}
+				table = cursor.getString(0);
+				nextId = cursor.getLong(1);
+			} finally {
+				cursor.close();
+			}
+			runBatch(db, table, nextId);
+		}
+		db.execSQL("drop table if exists " + TABLE);
+		Log.i(TAG, "Message backfill done");
+	}
+
+	/**
+	 * Fill the rows of up to {@link #BATCH_SIZE} messages with IDs up to
+	 * nextId, and record where the next batch starts.
+	 */
+	private static void runBatch(SQLiteDatabase db, String table, long nextId) {
+		db.beginTransaction();
+		try {
+			Cursor cursor = db.rawQuery(BATCH_QUERY,
+					new String[] { String.valueOf(nextId) });
+			long lastId = 0;
+			int count = 0;
+			try {
+				while (cursor.moveToNext()) {
+					lastId = cursor.getLong(0);
+					count++;
+					if (MessageSearchIndex.TABLE.equals(table)) {
+						db.execSQL(MessageSearchIndex.INSERT, MessageSearchIndex
+								.getRow(lastId, cursor.getString(1),
+										cursor.getString(2), cursor.getString(3)));
+					} else {
+						for (Object[] row : MessageFields.getRows(lastId,
+								cursor.getString(3))) {
+							db.execSQL(MessageFields.INSERT, row);
+						}
+					}
+				}
+			} finally {
+				cursor.close();
+			}
+			if (count < BATCH_SIZE) {
+				db.delete(TABLE, "name=?", new String[] { table });
+			} else {
+				db.execSQL("update " + TABLE + " set next_id=? where name=?",
+						new Object[] { lastId - 1, table });
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package com.alarmworkflow.eAlarm.database;
+
+import java.util.ArrayList;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * In-process notifications about changes to the stored messages.
+ *
+ * The data layer publishes a change once it is committed; listeners are
+ * always called on the UI thread, in publishing order. Screens register
+ * while they are visible and apply the change instead of reloading
+ * everything.
+ */
+public final class MessageChanges {
+	/**
+	 * Receives message changes on the UI thread.
+	 */
+	public interface Listener {
+		/**
+		 * A message was stored.
+		 *
+		 * @param id
+		 * @param ruleId
+		 */
+		void onMessageInserted(long id, long ruleId);
+
+		/**
+		 * A stored message was changed, e.g. marked as seen.
+		 *
+		 * @param id
+		 * @param ruleId
+		 */
+		void onMessageUpdated(long id, long ruleId);
+
+		/**
+		 * A message was deleted.
+		 *
+		 * @param id
+		 */
+		void onMessageDeleted(long id);
+
+		/**
+		 * Any number of messages of a rule were updated or deleted at once.
+		 *
+		 * @param ruleId
+		 *            the rule, or NULL if messages of all rules were
+		 *            affected.
+		 */
+		void onRuleChanged(Long ruleId);
+	}
+
+	private static final ArrayList<Listener> listeners = new ArrayList<Listener>();
+	private static final Handler handler = new Handler(Looper.getMainLooper());
+
+	private MessageChanges() {
+	}
+
+	/**
+	 * Start receiving changes. Must be called on the UI thread.
+	 *
+	 * @param listener
+	 */
+	public static void register(Listener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Stop receiving changes. Must be called on the UI thread.
+	 *
+	 * @param listener
+	 */
+	public static void unregister(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	static void inserted(final long id, final long ruleId) {
+		handler.post(new Runnable() {
+			public void run() {
+				for (Listener listener : snapshot()) {
+					listener.onMessageInserted(id, ruleId);
+				}
+			}
+		});
+	}
+
+	static void updated(final long id, final long ruleId) {
+		handler.post(new Runnable() {
+			public void run() {
+				for (Listener listener : snapshot()) {
+					listener.onMessageUpdated(id, ruleId);
+				}
+			}
+		});
+	}
+
+	static void deleted(final long id) {
+		handler.post(new Runnable() {
+			public void run() {
+				for (Listener listener : snapshot()) {
+					listener.onMessageDeleted(id);
+				}
+			}
+		});
+	}
+
+	static void ruleChanged(final Long ruleId) {
+		handler.post(new Runnable() {
+			public void run() {
+				for (Listener listener : snapshot()) {
+					listener.onRuleChanged(ruleId);
+				}
+			}
+		});
+	}
+
+	// Listeners may unregister while being called.
+	private static Listener[] snapshot() {
+		return listeners.toArray(new Listener[listeners.size()]);
+	}
+}
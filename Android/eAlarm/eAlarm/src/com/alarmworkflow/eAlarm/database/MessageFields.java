@@ -0,0 +1,77 @@
+package com.alarmworkflow.eAlarm.database;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Key/value copy of the content fields (awf_location and friends) of every
+ * message.
+ *
+ * The message_fields table holds one row per field, so fields can be
+ * aggregated across messages without parsing the JSON content, e.g. for the
+ * location suggestions of the message search. Rows are added when a message
+ * is inserted and removed by a trigger when it is deleted; the content
+ * column stays the source of truth.
+ */
+final class MessageFields {
+	static final String TABLE = "message_fields";
+	static final String KEY_MESSAGE_ID = "message_id";
+	static final String KEY_KEY = "key";
+	static final String KEY_VALUE = "value";
+
+	static final String[] DATABASE_CREATE = new String[] {
+			"create table if not exists " + TABLE
+					+ " (message_id integer not null, key text not null, value text not null, "
+					+ "primary key (message_id, key));",
+			"create index if not exists message_fields_key on " + TABLE
+					+ " (key, value);",
+			"create trigger if not exists message_fields_delete after delete on messages begin "
+					+ "delete from " + TABLE + " where message_id = old._id; end;" };
+
+	static final String INSERT = "insert or replace into " + TABLE
+			+ " (message_id, key, value) values (?, ?, ?)";
+
+	private MessageFields() {
+	}
+
+	/**
+	 * Get the arguments for {@link #INSERT}, one set per field of the
+	 * content.
+	 *
+	 * @param id
+	 * @param content
+	 * @return
+	 */
+	static List<Object[]> getRows(long id, JSONObject content) {
+		List<Object[]> rows = new ArrayList<Object[]>(content.length());
+		Iterator<?> keys = content.keys();
+		while (keys.hasNext()) {
+			String key = (String) keys.next();
+			rows.add(new Object[] { id, key, content.optString(key) });
+		}
+		return rows;
+	}
+
+	/**
+	 * Get the arguments for {@link #INSERT} from the raw JSON content. Content
+	 * that is not valid JSON has no fields.
+	 *
+	 * @param id
+	 * @param content
+	 * @return
+	 */
+	static List<Object[]> getRows(long id, String content) {
+		if (content == null) {
+			return new ArrayList<Object[]>(0);
+		}
+		try {
+			return getRows(id, new JSONObject(content));
+		} catch (JSONException e) {
+			return new ArrayList<Object[]>(0);
+		}
+	}
+}
@@ -0,0 +1,212 @@
+package com.alarmworkflow.eAlarm.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+/**
+ * Prunes the message history according to the retention policy of each rule
+ * and hands the freed pages back to the file system.
+ *
+ * Messages are deleted in batches of at most {@link #BATCH_SIZE} rows, each
+ * in its own short transaction, so an incoming alarm never waits long for
+ * the write lock. The delete triggers keep the unread counters and the
+ * search index in step.
+ */
+public final class MessageRetention {
+	private static final String TAG = "eAlarm";
+
+	private static final int BATCH_SIZE = 200;
+	// Upper bound of pages returned to the file system per run.
+	private static final int VACUUM_PAGES = 2048;
+	private static final long AUTO_VACUUM_INCREMENTAL = 2;
+	private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+	private static final String MESSAGES = DatabaseObject.DATABASE_TABLE_MESSAGES;
+	private static final String RULE = DatabaseAdapter.KEY_RULE_ID + "=?";
+	private static final String SEEN = " AND " + DatabaseAdapter.KEY_SEEN
+			+ "=1";
+
+	private MessageRetention() {
+	}
+
+	/**
+	 * Apply the retention policy of every rule, then compact the database.
+	 *
+	 * @param context
+	 * @return the number of messages deleted.
+	 */
+	public static int prune(Context context) {
+		SQLiteDatabase db = DatabaseManager.getInstance(context).getDatabase();
+		int deleted = 0;
+		for (NotificationRule rule : RuleRepository.get(context).getRules()) {
+			int ruleDeleted = pruneRule(db, rule);
+			if (ruleDeleted > 0) {
+				MessageChanges.ruleChanged(rule.getId());
+				deleted += ruleDeleted;
+			}
+		}
+		compact(db);
+		return deleted;
+	}
+
+	/**
+	 * Delete the messages of the rule that are older than its maximum age or
+	 * beyond its maximum count, sparing unseen messages if the rule says so.
+	 */
+	private static int pruneRule(SQLiteDatabase db, NotificationRule rule) {
+		String ruleId = String.valueOf(rule.getId());
+		boolean keepUnseen = rule.getRetentionKeepUnseen();
+		int deleted = 0;
+
+		if (rule.getRetentionDays() > 0) {
+			long cutoff = System.currentTimeMillis() - rule.getRetentionDays()
+					* DAY_MS;
+			deleted += deleteInBatches(db, ageSelection(keepUnseen),
+					new String[] { ruleId, String.valueOf(cutoff) });
+		}
+
+		if (rule.getRetentionCount() > 0) {
+			// Find the newest message beyond the limit; it and everything
+			// older goes, in the same order the message list uses.
+			Cursor cursor = db.rawQuery(
+					countCutoffQuery(rule.getRetentionCount()),
+					new String[] { ruleId });
+			try {
+				if (cursor.moveToFirst()) {
+					String timestamp = String.valueOf(cursor.getLong(0));
+					String id = String.valueOf(cursor.getLong(1));
+					deleted += deleteInBatches(db, countSelection(keepUnseen),
+							new String[] { ruleId, timestamp, timestamp, id });
+				}
+			} finally {
+				cursor.close();
+			}
+		}
+		return deleted;
+	}
+
+	/**
+	 * The messages of a rule older than a cutoff time. Arguments: rule ID,
+	 * cutoff.
+	 */
+	static String ageSelection(boolean keepUnseen) {
+		return RULE + (keepUnseen ? SEEN : "") + " AND "
+				+ DatabaseAdapter.KEY_TIMESTAMP_MS + "<?";
+	}
+
+	/**
+	 * The timestamp and ID of the newest message of a rule beyond the given
+	 * count. Argument: rule ID.
+	 */
+	static String countCutoffQuery(int count) {
+		return "select " + DatabaseAdapter.KEY_TIMESTAMP_MS + ","
+				+ DatabaseAdapter.KEY_ID + " from " + MESSAGES + " where "
+				+ RULE + " order by " + DatabaseAdapter.KEY_TIMESTAMP_MS
+				+ " DESC, " + DatabaseAdapter.KEY_ID + " DESC limit 1 offset "
+				+ count;
+	}
+
+	/**
+	 * The messages of a rule at or after the one found by
+	 * {@link #countCutoffQuery(int)}. Arguments: rule ID, its timestamp
+	 * twice, its ID.
+	 */
+	static String countSelection(boolean keepUnseen) {
+		return RULE + (keepUnseen ? SEEN : "") + " AND "
+				+ DatabaseAdapter.KEY_TIMESTAMP_MS + "<=? AND ("
+				+ DatabaseAdapter.KEY_TIMESTAMP_MS + "<? OR "
+				+ DatabaseAdapter.KEY_ID + "<=?)";
+	}
+
+	/**
+	 * The where clause deleting one batch of the messages matching the
+	 * selection.
+	 */
+	static String deleteWhere(String selection) {
+		return DatabaseAdapter.KEY_ID + " in (select " + DatabaseAdapter.KEY_ID
+				+ " from " + MESSAGES + " where " + selection + " limit "
+				+ BATCH_SIZE + ")";
+	}
+
+	/**
+	 * Delete all messages matching the selection, one bounded transaction at
+	 * a time.
+	 */
+	private static int deleteInBatches(SQLiteDatabase db, String selection,
+			String[] selectionArgs) {
+		String where = deleteWhere(selection);
+		int total = 0;
+		int deleted;
+		do {
+			db.beginTransaction();
+			try {
+				deleted = db.delete(MESSAGES, where, selectionArgs);
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+			total += deleted;
+		} while (deleted >= BATCH_SIZE);
+		return total;
+	}
+
+	/**
+	 * Switch the database to incremental auto-vacuum, unless it already uses
+	 * it. The mode only takes effect with a full VACUUM, which rewrites the
+	 * whole file and locks out incoming alarms meanwhile, so this must only
+	 * be called in the background while the device is idle. It is needed
+	 * once per install; later calls return at once.
+	 *
+	 * @param context
+	 * @return true if the database uses incremental auto-vacuum now.
+	 */
+	public static boolean enableAutoVacuum(Context context) {
+		SQLiteDatabase db = DatabaseManager.getInstance(context).getDatabase();
+		try {
+			if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) == AUTO_VACUUM_INCREMENTAL) {
+				return true;
+			}
+			db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+			db.execSQL("VACUUM");
+			return DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) == AUTO_VACUUM_INCREMENTAL;
+		} catch (SQLException e) {
+			// E.g. not enough space for the copy, or busy. The database
+			// works as before; try again on the next run.
+			Log.w(TAG, "Could not switch to incremental auto-vacuum", e);
+			return false;
+		}
+	}
+
+	/**
+	 * Return up to {@link #VACUUM_PAGES} free pages to the file system, in one
+	 * bounded step. Needs incremental auto-vacuum, see
+	 * {@link #enableAutoVacuum(Context)}.
+	 */
+	private static void compact(SQLiteDatabase db) {
+		try {
+			// Until the mode is switched the freed pages stay in the file
+			// and are reused by new messages.
+			if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) != AUTO_VACUUM_INCREMENTAL) {
+				return;
+			}
+			// Each step of the pragma frees pages, so it has to be stepped
+			// to the end rather than executed once.
+			Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum("
+					+ VACUUM_PAGES + ")", null);
+			try {
+				while (cursor.moveToNext()) {
+					// Nothing to read.
+				}
+			} finally {
+				cursor.close();
+			}
+		} catch (SQLException e) {
+			// Busy with other statements; try again on the next run.
+			Log.w(TAG, "Could not compact the database", e);
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package com.alarmworkflow.eAlarm.database;
+
+import java.util.Iterator;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Full-text index over the message history.
+ *
+ * The messages_fts table holds the title, the message and the decoded awf_*
+ * fields of each message, keyed by the message ID (docid). Rows are added
+ * when a message is inserted and removed by a trigger when it is deleted.
+ */
+final class MessageSearchIndex {
+	static final String TABLE = "messages_fts";
+
+	static final String[] DATABASE_CREATE = new String[] {
+			"create virtual table " + TABLE
+					+ " using fts3(title, message, content);",
+			"create trigger if not exists messages_fts_delete after delete on messages begin "
+					+ "delete from " + TABLE + " where docid = old._id; end;" };
+
+	static final String INSERT = "insert into " + TABLE
+			+ " (docid, title, message, content) values (?, ?, ?, ?)";
+
+	private MessageSearchIndex() {
+	}
+
+	/**
+	 * Get the arguments for {@link #INSERT} to index a message.
+	 *
+	 * @param id
+	 * @param title
+	 * @param message
+	 * @param content
+	 *            the parsed content of the message.
+	 * @return
+	 */
+	static Object[] getRow(long id, String title, String message,
+			JSONObject content) {
+		return new Object[] { id, title == null ? "" : title,
+				message == null ? "" : message,
+				getSearchableContent(content) };
+	}
+
+	/**
+	 * Get the arguments for {@link #INSERT} from the raw JSON content.
+	 * Content that is not valid JSON is searched by title and message only.
+	 *
+	 * @param id
+	 * @param title
+	 * @param message
+	 * @param content
+	 * @return
+	 */
+	static Object[] getRow(long id, String title, String message,
+			String content) {
+		JSONObject json = null;
+		if (content != null) {
+			try {
+				json = new JSONObject(content);
+			} catch (JSONException e) {
+				// Not indexable.
+			}
+		}
+		return getRow(id, title, message, json);
+	}
+
+	/**
+	 * Turn free text typed by the user into an FTS query: every word must
+	 * appear, as a prefix of a word in the message.
+	 *
+	 * @param text
+	 * @return the query, or NULL if the text has no words.
+	 */
+	static String toQuery(String text) {
+		StringBuilder query = new StringBuilder();
+		for (String word : text.replace('"', ' ').trim().split("\\s+")) {
+			if (word.length() > 0) {
+				if (query.length() > 0) {
+					query.append(' ');
+				}
+				query.append('"').append(word).append("*\"");
+			}
+		}
+		return query.length() == 0 ? null : query.toString();
+	}
+
+	/**
+	 * Get the values of all awf_* fields of the JSON content, one per line.
+	 */
+	private static String getSearchableContent(JSONObject content) {
+		if (content == null) {
+			return "";
+		}
+		StringBuilder values = new StringBuilder();
+		Iterator<?> keys = content.keys();
+		while (keys.hasNext()) {
+			String key = (String) keys.next();
+			if (key.startsWith("awf_")) {
+				values.append(content.optString(key)).append('\n');
+			}
+		}
+		return values.toString();
+	}
+}
@@ -0,0 +1,208 @@
+package com.alarmworkflow.eAlarm.database;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.content.Context;
+import android.os.PowerManager;
+import android.util.Log;
+
+/**
+ * Write-behind persistence for incoming alarms.
+ *
+ * The GCM service submits the messages of a push and immediately gets a
+ * token for the message to alert with, which the notification service and
+ * the music player resolve in memory with {@link #get(long)}. A single
+ * writer thread saves the batch in the background.
+ *
+ * Guarantees:
+ * <ul>
+ * <li>Ordering: batches are committed one at a time, in the order they were
+ * submitted, so message IDs follow the order in which pushes arrived.</li>
+ * <li>Atomicity: each batch is saved in one transaction; either all
+ * messages of a push are stored or none is.</li>
+ * <li>Durability: a message is stored only once {@link #awaitWritten(long)}
+ * has returned true or {@link Callback#onWritten(boolean)} was called with
+ * true. The writer holds a wake lock while batches are queued,
+ * but if the process dies before the batch is committed the alarm is still
+ * alerted and not recorded. Until then the message has no ID; anything that
+ * refers to it by ID must wait for the write first.</li>
+ * </ul>
+ */
+public final class MessageWriter {
+	private static final String TAG = "eAlarm";
+	// Recently submitted messages kept for lookup by token.
+	private static final int MAX_PENDING = 16;
+
+	private static final ExecutorService writer = Executors
+			.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					return new Thread(runnable, "eAlarm message writer");
+				}
+			});
+
+	private static final Map<Long, Pending> pending = new LinkedHashMap<Long, Pending>() {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Pending> eldest) {
+			return size() > MAX_PENDING;
+		}
+	};
+	private static long nextToken = 1;
+	private static PowerManager.WakeLock wakeLock;
+
+	private static class Pending {
+		final NotificationMessage message;
+		final CountDownLatch written = new CountDownLatch(1);
+		volatile boolean saved = false;
+
+		Pending(NotificationMessage message) {
+			this.message = message;
+		}
+	}
+
+	/**
+	 * Receives the outcome of a batch.
+	 */
+	public interface Callback {
+		/**
+		 * Called on the writer thread once the batch was committed or has
+		 * failed. Database access is fine here; post anything touching the
+		 * UI to the main thread.
+		 *
+		 * @param saved
+		 *            true if the messages are stored and have their IDs.
+		 */
+		void onWritten(boolean saved);
+	}
+
+	private MessageWriter() {
+	}
+
+	/**
+	 * Queue the messages of one push for saving.
+	 *
+	 * @param context
+	 * @param messages
+	 *            all messages of the push, saved in one transaction.
+	 * @param alert
+	 *            the message to hand over to the alert pipeline; must be one
+	 *            of the messages.
+	 * @return the token to look up the alert message with.
+	 */
+	public static long submit(Context context,
+			Collection<NotificationMessage> messages, NotificationMessage alert) {
+		final Context appContext = context.getApplicationContext();
+		final ArrayList<NotificationMessage> batch = new ArrayList<NotificationMessage>(
+				messages);
+		final Pending entry = new Pending(alert);
+		long token;
+		synchronized (pending) {
+			token = nextToken++;
+			pending.put(token, entry);
+		}
+
+		getWakeLock(appContext).acquire();
+		writer.execute(new Runnable() {
+			public void run() {
+				try {
+					NotificationMessage.FACTORY.saveAll(appContext, batch);
+					entry.saved = true;
+				} catch (RuntimeException e) {
+					Log.e(TAG, "Could not save incoming messages", e);
+				} finally {
+					entry.written.countDown();
+					getWakeLock(appContext).release();
+				}
+			}
+		});
+		return token;
+	}
+
+	/**
+	 * Get a submitted message by token. It may not be saved yet.
+	 *
+	 * @param token
+	 * @return the message, or NULL if the token is unknown or too old.
+	 */
+	public static NotificationMessage get(long token) {
+		synchronized (pending) {
+			Pending entry = pending.get(token);
+			return entry == null ? null : entry.message;
+		}
+	}
+
+	/**
+	 * Call back once the batch of the given token is committed or has
+	 * failed. Does not block, so it is safe on the main thread.
+	 *
+	 * @param context
+	 * @param token
+	 * @param callback
+	 */
+	public static void whenWritten(Context context, long token,
+			final Callback callback) {
+		final Pending entry;
+		synchronized (pending) {
+			entry = pending.get(token);
+		}
+		final Context appContext = context.getApplicationContext();
+		getWakeLock(appContext).acquire();
+		// The writer runs its tasks in order, so this runs after the batch.
+		writer.execute(new Runnable() {
+			public void run() {
+				try {
+					callback.onWritten(entry != null && entry.saved);
+				} catch (RuntimeException e) {
+					Log.e(TAG, "Write callback failed", e);
+				} finally {
+					getWakeLock(appContext).release();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Block until the batch of the given token is committed. Never call this
+	 * on the main thread; use {@link #whenWritten(Context, long, Callback)}
+	 * there.
+	 *
+	 * @param token
+	 * @return true if the messages are stored and have their IDs.
+	 */
+	public static boolean awaitWritten(long token) {
+		Pending entry;
+		synchronized (pending) {
+			entry = pending.get(token);
+		}
+		if (entry == null) {
+			return false;
+		}
+		try {
+			entry.written.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		return entry.saved;
+	}
+
+	private static synchronized PowerManager.WakeLock getWakeLock(
+			Context context) {
+		if (wakeLock == null) {
+			PowerManager powerManager = (PowerManager) context
+					.getSystemService(Context.POWER_SERVICE);
+			wakeLock = powerManager.newWakeLock(
+					PowerManager.PARTIAL_WAKE_LOCK, "eAlarm message writer");
+			wakeLock.setReferenceCounted(true);
+		}
+		return wakeLock;
+	}
+}
@@ -0,0 +1,71 @@
+package com.alarmworkflow.eAlarm.database;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+/**
+ * One step of the schema history: brings the database from the previous
+ * version to {@link #getVersion()} without losing data.
+ *
+ * Steps only ever add to the schema (columns, tables, indexes, triggers)
+ * and backfill derived data from what is already stored. Once released, a
+ * step must not be changed; fix mistakes with a new step.
+ */
+abstract class Migration {
+	private static final String TAG = "eAlarm";
+
+	private final int version;
+
+	Migration(int version) {
+		this.version = version;
+	}
+
+	/**
+	 * Get the database version this step upgrades to.
+	 *
+	 * @return
+	 */
+	int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Apply the step.
+	 *
+	 * @param db
+	 */
+	abstract void migrate(SQLiteDatabase db);
+
+	/**
+	 * Run all steps after oldVersion up to and including newVersion, in order,
+	 * each in its own transaction.
+	 *
+	 * SQLiteOpenHelper runs the whole upgrade inside one outer transaction
+	 * and only stores the new version when it commits. A failing step
+	 * therefore leaves the database exactly at oldVersion, and the upgrade is
+	 * retried on the next open.
+	 *
+	 * @param db
+	 * @param migrations
+	 *            the steps, ordered by version.
+	 * @param oldVersion
+	 * @param newVersion
+	 */
+	static void run(SQLiteDatabase db, Migration[] migrations, int oldVersion,
+			int newVersion) {
+		for (Migration migration : migrations) {
+			if (migration.version <= oldVersion
+					|| migration.version > newVersion) {
+				continue;
+			}
+			Log.i(TAG, "Upgrading database to version " + migration.version);
+			db.beginTransaction();
+			try {
+				migration.migrate(db);
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+		}
+	}
+}
@@ -12,7 +12,7 @@ import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Collection;
 import java.util.Date;
 import java.util.Locale;
 import java.util.Set;
@@ -45,11 +45,24 @@ import android.util.Base64;
 public class NotificationMessage extends DatabaseObject<NotificationMessage> {
 	public final static NotificationMessage FACTORY = new NotificationMessage();
 
+	// Positions of the columns in DatabaseAdapter.MESSAGE_PROJECTION.
+	private static final int COLUMN_ID = 0;
+	private static final int COLUMN_RULE_ID = 1;
+	private static final int COLUMN_TIMESTAMP = 2;
+	private static final int COLUMN_TIMESTAMP_MS = 3;
+	private static final int COLUMN_TITLE = 4;
+	private static final int COLUMN_MESSAGE = 5;
+	private static final int COLUMN_CONTENT = 6;
+	private static final int COLUMN_SEEN = 7;
+
 	// private static final String TAG = "eAlarm";
 	private NotificationRule rule;
 	private String title;
 	private String timestamp;
+	private long timestampMs;
 	private String message;
+	// The content is kept as stored until getContent() is first called.
+	private String rawContent;
 	private JSONObject content;
 	private Boolean seen;
 	private final static String characterEncoding = "UTF-8";
@@ -80,6 +93,19 @@ public class NotificationMessage extends DatabaseObject<NotificationMessage> {
 		this.timestamp = timestamp;
 	}
 
+	/**
+	 * Get the timestamp in milliseconds since the epoch.
+	 * 
+	 * @return
+	 */
+	public long getTimestampMs() {
+		return timestampMs;
+	}
+
+	public void setTimestampMs(long timestampMs) {
+		this.timestampMs = timestampMs;
+	}
+
 	public static Date parseISO8601String(String isoString)
 			throws ParseException {
 		SimpleDateFormat ISO8601DATEFORMAT = new SimpleDateFormat(
@@ -95,6 +121,10 @@ public class NotificationMessage extends DatabaseObject<NotificationMessage> {
 	}
 
 	public String getDisplayTimestamp() {
+		if (this.timestampMs > 0) {
+			return NotificationMessage.formatUTCAsLocal(new Date(
+					this.timestampMs));
+		}
 		try {
 			return NotificationMessage.formatUTCAsLocal(NotificationMessage
 					.parseISO8601String(this.timestamp));
@@ -178,42 +208,14 @@ public class NotificationMessage extends DatabaseObject<NotificationMessage> {
 		dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
 		Date d = new Date();
 		String timeStamp = dateFormat.format(d);
-		ArrayList<NotificationRule> rules = NotificationRule.FACTORY
-				.listAll(context);
+		ArrayList<NotificationRule> rules = RuleRepository.get(context).match(
+				incoming.getTitle(), incoming.getMessage());
 		ArrayList<NotificationRule> possibleRules = new ArrayList<NotificationRule>();
+		int minuteOfDay = ActivationWindow.minuteOfDay(d.getTime(),
+				TimeZone.getDefault());
 		for (NotificationRule rule : rules) {
-			Calendar now = Calendar.getInstance();
-			Calendar startValue = Calendar.getInstance();
-			Calendar stopValue = Calendar.getInstance();
-			SimpleDateFormat ho = new SimpleDateFormat("HH:mm", Locale.GERMAN);
-			try {
-				Date start = ho.parse(rule.getStartTime());
-				Date stop = ho.parse(rule.getStopTime());
-
-				startValue.set(Calendar.HOUR_OF_DAY, start.getHours());
-				startValue.set(Calendar.MINUTE, start.getMinutes());
-				stopValue.set(Calendar.HOUR_OF_DAY, stop.getHours());
-				stopValue.set(Calendar.MINUTE, stop.getMinutes());
-				if (start.after(stop) && start.after(now.getTime())) {
-					startValue.add(Calendar.DATE, -1);
-				} else if (start.after(stop) && start.before(now.getTime())) {
-					stopValue.add(Calendar.DATE, +1);
-				}
-			} catch (ParseException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-			if ("".matches(rule.getSearchText())
-					|| incoming.getTitle().matches(rule.getSearchText())
-					|| incoming.getMessage().matches(rule.getSearchText())) {
-				if (Calendar.getInstance().after(startValue)
-						&& Calendar.getInstance().before(stopValue)
-						|| startValue.getTime() == Calendar.getInstance()
-								.getTime()
-						|| stopValue.getTime() == Calendar.getInstance()
-								.getTime()) {
-					possibleRules.add(rule);
-				}
+			if (rule.isActiveAt(minuteOfDay)) {
+				possibleRules.add(rule);
 			}
 		}
 		if (possibleRules.size() == 0) {
@@ -227,6 +229,7 @@ public class NotificationMessage extends DatabaseObject<NotificationMessage> {
 			message.setMessage(incoming.getMessage());
 			message.setTitle(incoming.getTitle());
 			message.setTimestamp(timeStamp);
+			message.setTimestampMs(d.getTime());
 			messages.add(message);
 		}
 		return (NotificationMessage[]) messages
@@ -235,71 +238,177 @@ public class NotificationMessage extends DatabaseObject<NotificationMessage> {
 
 	public ArrayList<NotificationMessage> list(Context context,
 			NotificationRule rule) {
-		String query = "";
+		String query = null;
+		String[] queryArgs = null;
 		if (rule != null) {
-			query = DatabaseAdapter.KEY_RULE_ID + "=" + rule.getId();
+			query = DatabaseAdapter.KEY_RULE_ID + "=?";
+			queryArgs = new String[] { String.valueOf(rule.getId()) };
 		}
 
-		return this.genericList(context, query, null,
-				DatabaseAdapter.KEY_TIMESTAMP + " DESC");
+		return this.genericList(context, query, queryArgs,
+				DatabaseAdapter.KEY_TIMESTAMP_MS + " DESC");
 	}
 
-	private String getTableFor(Uri uri) {
-		switch (uriMatcher.match(uri)) {
-		case RULES:
-		case RULES_ID:
-			return DATABASE_TABLE_RULES;
-		case MESSAGES:
-		case MESSAGE_ID:
-			return DATABASE_TABLE_MESSAGES;
-		default:
-			throw new IllegalArgumentException("URI: " + uri);
-		}
-	}
+	private static final String CURSOR_LIST_QUERY = "select "
+			+ DatabaseAdapter.KEY_ID + "," + DatabaseAdapter.KEY_TITLE + ","
+			+ DatabaseAdapter.KEY_MESSAGE + ","
+			+ DatabaseAdapter.KEY_TIMESTAMP_MS + "," + DatabaseAdapter.KEY_SEEN
+			+ " from "
+			+ DATABASE_TABLE_MESSAGES;
 
 	public Cursor cursorList(Context context, NotificationRule rule) {
-		String table = this.getTableFor(this.getContentUri());
-		String[] proj = new String[] { DatabaseAdapter.KEY_ID,
-				DatabaseAdapter.KEY_TITLE, DatabaseAdapter.KEY_MESSAGE,
-				DatabaseAdapter.KEY_TIMESTAMP, DatabaseAdapter.KEY_SEEN };
-		String fields = "";
-		for (int i = 0; i < proj.length; i++) {
-			fields += proj[i];
-			if (i < proj.length - 1)
-				fields += ",";
+		if (rule != null) {
+			return this.timedQuery(context, CURSOR_LIST_QUERY + " where "
+					+ DatabaseAdapter.KEY_RULE_ID + "=? order by "
+					+ DatabaseAdapter.KEY_TIMESTAMP_MS + " DESC",
+					new String[] { String.valueOf(rule.getId()) });
 		}
-
-		String query = "select " + fields + " from " + table;
-
+		return this.timedQuery(context, CURSOR_LIST_QUERY + " order by "
+				+ DatabaseAdapter.KEY_TIMESTAMP_MS + " DESC", null);
+	}
+
+	private static final String PAGE_POSITION = DatabaseAdapter.KEY_TIMESTAMP_MS
+			+ "<=? AND (" + DatabaseAdapter.KEY_TIMESTAMP_MS + "<? OR "
+			+ DatabaseAdapter.KEY_ID + "<?)";
+	private static final String PAGE_ORDER = " order by "
+			+ DatabaseAdapter.KEY_TIMESTAMP_MS + " DESC, "
+			+ DatabaseAdapter.KEY_ID + " DESC limit ";
+
+	/**
+	 * Get one page of messages, newest first, with the same columns as
+	 * {@link #cursorList(Context, NotificationRule)}. The page starts
+	 * directly after the given position, so the cost does not depend on how
+	 * many pages were read before. Pass Long.MAX_VALUE for both to get the
+	 * first page, and the timestamp and ID of the last row to get the next.
+	 * 
+	 * @param context
+	 * @param rule
+	 *            optional, NULL for all rules.
+	 * @param beforeTimestampMs
+	 * @param beforeId
+	 * @param pageSize
+	 * @return
+	 */
+	public Cursor cursorPage(Context context, NotificationRule rule,
+			long beforeTimestampMs, long beforeId, int pageSize) {
+		String timestamp = String.valueOf(beforeTimestampMs);
+		String id = String.valueOf(beforeId);
 		if (rule != null) {
-			query += " where " + DatabaseAdapter.KEY_RULE_ID + "="
-					+ rule.getId();
+			return this.timedQuery(context, pageQuery(true, pageSize),
+					new String[] { String.valueOf(rule.getId()), timestamp,
+							timestamp, id });
 		}
-
-		query += " order by " + DatabaseAdapter.KEY_TIMESTAMP + " DESC";
-
-		SQLiteDatabase db = context
-				.openOrCreateDatabase(DATABASE_NAME, 0, null);
-		Cursor cursor = db.rawQuery(query, null);
-		return cursor;
-	}
-
+		return this.timedQuery(context, pageQuery(false, pageSize),
+				new String[] { timestamp, timestamp, id });
+	}
+
+	/**
+	 * The query of {@link #cursorPage}. Arguments: the rule ID if forRule,
+	 * then the timestamp twice and the ID of the position.
+	 */
+	static String pageQuery(boolean forRule, int pageSize) {
+		return CURSOR_LIST_QUERY + " where "
+				+ (forRule ? DatabaseAdapter.KEY_RULE_ID + "=? AND " : "")
+				+ PAGE_POSITION + PAGE_ORDER + pageSize;
+	}
+
+	/**
+	 * Get a single message with the same columns as
+	 * {@link #cursorList(Context, NotificationRule)}, e.g. to add a new
+	 * message to a list that is already shown.
+	 * 
+	 * @param context
+	 * @param id
+	 * @return
+	 */
+	public Cursor cursorById(Context context, long id) {
+		return this.timedQuery(context, CURSOR_LIST_QUERY + " where "
+				+ DatabaseAdapter.KEY_ID + "=?",
+				new String[] { String.valueOf(id) });
+	}
+
+	/**
+	 * Search the message history, newest first, with the same columns as
+	 * {@link #cursorList(Context, NotificationRule)}. Every word of the text
+	 * must appear (as a word prefix) in the title, the message or one of the
+	 * awf_* fields. A text without words matches nothing.
+	 * 
+	 * @param context
+	 * @param rule
+	 *            optional, NULL for all rules.
+	 * @param text
+	 * @param sinceTimestampMs
+	 *            only return messages at or after this time, 0 for all.
+	 * @return
+	 */
+	public Cursor search(Context context, NotificationRule rule, String text,
+			long sinceTimestampMs) {
+		String match = MessageSearchIndex.toQuery(text);
+		if (match == null) {
+			// Nothing to search for, so nothing matches; the whole history
+			// is only ever read page by page.
+			return this.timedQuery(context, CURSOR_LIST_QUERY + " limit 0",
+					null);
+		}
+		if (rule != null) {
+			return this.timedQuery(context, searchQuery(true), new String[] {
+					match, String.valueOf(sinceTimestampMs),
+					String.valueOf(rule.getId()) });
+		}
+		return this.timedQuery(context, searchQuery(false), new String[] {
+				match, String.valueOf(sinceTimestampMs) });
+	}
+
+	/**
+	 * The query of {@link #search}. Arguments: the FTS query, the earliest
+	 * timestamp, then the rule ID if forRule.
+	 */
+	static String searchQuery(boolean forRule) {
+		return CURSOR_LIST_QUERY + " where " + DatabaseAdapter.KEY_ID
+				+ " in (select docid from " + MessageSearchIndex.TABLE
+				+ " where " + MessageSearchIndex.TABLE + " match ?) AND "
+				+ DatabaseAdapter.KEY_TIMESTAMP_MS + ">=?"
+				+ (forRule ? " AND " + DatabaseAdapter.KEY_RULE_ID + "=?" : "")
+				+ " order by " + DatabaseAdapter.KEY_TIMESTAMP_MS + " DESC";
+	}
+
+	static final String COUNT_UNREAD_FOR_RULE = "select coalesce((select unread from rule_unread where rule_id=?), 0)";
+	private static final String COUNT_UNREAD = "select coalesce(sum(unread), 0) from rule_unread";
+
+	/**
+	 * Count unread messages, optionally for one rule. Reads the per-rule
+	 * counters maintained by the database, so it does not depend on the
+	 * size of the message history.
+	 * 
+	 * @param context
+	 * @param rule
+	 * @return
+	 */
 	public int countUnread(Context context, NotificationRule rule) {
-		String query = DatabaseAdapter.KEY_SEEN + " = 0 ";
+		long started = QueryStats.start();
+		int count;
 		if (rule != null) {
-			query += " AND " + DatabaseAdapter.KEY_RULE_ID + "=" + rule.getId();
+			count = (int) this.getStatements(context).queryForLong(
+					COUNT_UNREAD_FOR_RULE,
+					new String[] { String.valueOf(rule.getId()) });
+			QueryStats.record(QueryStats.COUNT, "rule_unread",
+					COUNT_UNREAD_FOR_RULE, started);
+		} else {
+			count = (int) this.getStatements(context).queryForLong(
+					COUNT_UNREAD, null);
+			QueryStats.record(QueryStats.COUNT, "rule_unread", COUNT_UNREAD,
+					started);
 		}
-		return this.genericCount(context, query, null);
+		return count;
 	}
 
 	public NotificationMessage getUnread(Context context, NotificationRule rule) {
 		NotificationMessage message = null;
-		String query = "";
-		query = DatabaseAdapter.KEY_RULE_ID + "=" + rule.getId() + " AND "
-				+ DatabaseAdapter.KEY_SEEN + " = 0 ";
+		String query = DatabaseAdapter.KEY_RULE_ID + "=? AND "
+				+ DatabaseAdapter.KEY_SEEN + "=0";
 
 		ArrayList<NotificationMessage> messages = this.genericList(context,
-				query, null, null);
+				query, new String[] { String.valueOf(rule.getId()) }, null);
 		if (messages.size() == 1) {
 			message = messages.get(0);
 		}
@@ -311,20 +420,27 @@ public class NotificationMessage extends DatabaseObject<NotificationMessage> {
 		values.put(DatabaseAdapter.KEY_SEEN, 1);
 
 		String whereclause = null;
+		String[] whereclauseArgs = null;
 		if (rule != null) {
-			whereclause = DatabaseAdapter.KEY_RULE_ID + " = " + rule.getId();
+			whereclause = DatabaseAdapter.KEY_RULE_ID + "=?";
+			whereclauseArgs = new String[] { String.valueOf(rule.getId()) };
 		}
-		SQLiteDatabase db = context
-				.openOrCreateDatabase(DATABASE_NAME, 0, null);
-		db.update(this.getTableFor(this.getContentUri()), values, whereclause,
-				null);
+		long started = QueryStats.start();
+		SQLiteDatabase db = this.getDatabase(context);
+		db.update(DATABASE_TABLE_MESSAGES, values, whereclause,
+				whereclauseArgs);
+		QueryStats.record(QueryStats.UPDATE, DATABASE_TABLE_MESSAGES,
+				whereclause, started);
+		MessageChanges.ruleChanged(rule != null ? rule.getId() : null);
 	}
 
 	public void deleteMessagesByRule(Context context, NotificationRule rule,
 			boolean onlyRead) {
 		String query = null;
+		String[] queryArgs = null;
 		if (rule != null) {
-			query = DatabaseAdapter.KEY_RULE_ID + "=" + rule.getId();
+			query = DatabaseAdapter.KEY_RULE_ID + "=?";
+			queryArgs = new String[] { String.valueOf(rule.getId()) };
 		}
 		if (onlyRead) {
 			if (query != null) {
@@ -336,31 +452,62 @@ public class NotificationMessage extends DatabaseObject<NotificationMessage> {
 			query += DatabaseAdapter.KEY_SEEN + "= 1";
 		}
 
-		this.genericDelete(context, query, null);
+		this.genericDelete(context, query, queryArgs);
+		MessageChanges.ruleChanged(rule != null ? rule.getId() : null);
 	}
 
 	public void deleteOlderThan(Context context, Date date) {
-		// Parse it, and display in LOCAL timezone.
-		SimpleDateFormat ISO8601DATEFORMAT = new SimpleDateFormat(
-				"yyyy-MM-dd'T'HH:mm:ss.SSSSSS", Locale.GERMAN);
-		ISO8601DATEFORMAT.setTimeZone(TimeZone.getTimeZone("UTC"));
-		String formattedDate = ISO8601DATEFORMAT.format(date);
-
-		// So, everything older than formattedDate should be removed.
-		this.genericDelete(context, DatabaseAdapter.KEY_TIMESTAMP + " < ?",
-				new String[] { formattedDate });
+		// Everything older than the given date should be removed.
+		this.genericDelete(context, DatabaseAdapter.KEY_TIMESTAMP_MS + " < ?",
+				new String[] { String.valueOf(date.getTime()) });
+		MessageChanges.ruleChanged(null);
 	}
 
 	public void deleteById(Context context, int id) {
-		String whereclause = "_id = ?";
-		String ident = String.valueOf(id);
-		String[] whereclauseArgs = new String[1];
-		whereclauseArgs[0] = ident;
-
-		SQLiteDatabase db = context
-				.openOrCreateDatabase(DATABASE_NAME, 0, null);
-		db.delete(this.getTableFor(this.getContentUri()), whereclause,
-				whereclauseArgs);
+		this.deleteById(context, Long.valueOf(id));
+	}
+
+	@Override
+	public void deleteById(Context context, Long id) {
+		super.deleteById(context, id);
+		MessageChanges.deleted(id);
+	}
+
+	@Override
+	public void save(Context context) {
+		boolean inserting = this.getId() == null;
+		super.save(context);
+		// Within saveAll() the change is only published after the commit.
+		if (!this.getDatabase(context).inTransaction()) {
+			this.publishSaved(inserting);
+		}
+	}
+
+	@Override
+	public void saveAll(Context context,
+			Collection<? extends DatabaseObject<NotificationMessage>> objects) {
+		ArrayList<DatabaseObject<NotificationMessage>> inserting = new ArrayList<DatabaseObject<NotificationMessage>>();
+		for (DatabaseObject<NotificationMessage> object : objects) {
+			if (object.getId() == null) {
+				inserting.add(object);
+			}
+		}
+		super.saveAll(context, objects);
+		for (DatabaseObject<NotificationMessage> object : objects) {
+			((NotificationMessage) object).publishSaved(inserting
+					.contains(object));
+		}
+	}
+
+	private void publishSaved(boolean inserted) {
+		if (this.getId() == null) {
+			return;
+		}
+		if (inserted) {
+			MessageChanges.inserted(this.getId(), this.getRule().getId());
+		} else {
+			MessageChanges.updated(this.getId(), this.getRule().getId());
+		}
 	}
 
 	@Override
@@ -368,6 +515,18 @@ public class NotificationMessage extends DatabaseObject<NotificationMessage> {
 		return DatabaseAdapter.CONTENT_URI_MESSAGES;
 	}
 
+	@Override
+	protected void afterInsert(Context context) {
+		this.getStatements(context).execute(
+				MessageSearchIndex.INSERT,
+				MessageSearchIndex.getRow(this.getId(), this.getTitle(),
+						this.getMessage(), this.getContent()));
+		for (Object[] row : MessageFields.getRows(this.getId(),
+				this.getContent())) {
+			this.getStatements(context).execute(MessageFields.INSERT, row);
+		}
+	}
+
 	@Override
 	protected ContentValues flatten() {
 		ContentValues values = new ContentValues();
@@ -375,32 +534,26 @@ public class NotificationMessage extends DatabaseObject<NotificationMessage> {
 		values.put(DatabaseAdapter.KEY_RULE_ID, this.getRule().getId());
 		values.put(DatabaseAdapter.KEY_MESSAGE, this.getMessage());
 		values.put(DatabaseAdapter.KEY_TIMESTAMP, this.getTimestamp());
+		values.put(DatabaseAdapter.KEY_TIMESTAMP_MS, this.getTimestampMs());
 		values.put(DatabaseAdapter.KEY_SEEN, this.getSeen() ? 1 : 0);
-		values.put(DatabaseAdapter.KEY_CONTENT, this.content.toString());
+		values.put(DatabaseAdapter.KEY_CONTENT, this.getRawContent());
 		return values;
 	}
 
 	@Override
-	protected NotificationMessage inflate(Context context, Cursor cursor) {
+	protected NotificationMessage inflate(Context context, Cursor cursor,
+			int[] columns) {
 		NotificationMessage message = new NotificationMessage();
-		message.setId(cursor.getLong(cursor
-				.getColumnIndex(DatabaseAdapter.KEY_ID)));
-		message.setTitle(cursor.getString(cursor
-				.getColumnIndex(DatabaseAdapter.KEY_TITLE)));
-		message.setMessage(cursor.getString(cursor
-				.getColumnIndex(DatabaseAdapter.KEY_MESSAGE)));
-		message.setRule(NotificationRule.FACTORY.get(context, cursor
-				.getLong(cursor.getColumnIndex(DatabaseAdapter.KEY_RULE_ID))));
-		message.setSeen(cursor.getLong(cursor
-				.getColumnIndex(DatabaseAdapter.KEY_SEEN)) == 0 ? false : true);
-		message.setTimestamp(cursor.getString(cursor
-				.getColumnIndex(DatabaseAdapter.KEY_TIMESTAMP)));
-		try {
-			message.setContent(new JSONObject(cursor.getString(cursor
-					.getColumnIndex(DatabaseAdapter.KEY_CONTENT))));
-		} catch (JSONException e) {
-			message.setContent(new JSONObject());
-		}
+		message.setId(cursor.getLong(columns[COLUMN_ID]));
+		message.setTitle(cursor.getString(columns[COLUMN_TITLE]));
+		message.setMessage(cursor.getString(columns[COLUMN_MESSAGE]));
+		message.setRule(NotificationRule.FACTORY.getCached(context,
+				cursor.getLong(columns[COLUMN_RULE_ID])));
+		message.setSeen(cursor.getLong(columns[COLUMN_SEEN]) == 0 ? false
+				: true);
+		message.setTimestamp(cursor.getString(columns[COLUMN_TIMESTAMP]));
+		message.setTimestampMs(cursor.getLong(columns[COLUMN_TIMESTAMP_MS]));
+		message.rawContent = cursor.getString(columns[COLUMN_CONTENT]);
 		return message;
 	}
 
@@ -409,12 +562,73 @@ public class NotificationMessage extends DatabaseObject<NotificationMessage> {
 		return DatabaseAdapter.MESSAGE_PROJECTION;
 	}
 
+	/**
+	 * Get the content fields of this message. The stored JSON is parsed on
+	 * the first call only; invalid JSON yields an empty object.
+	 * 
+	 * @return
+	 */
 	public JSONObject getContent() {
+		if (content == null) {
+			try {
+				content = rawContent == null ? new JSONObject()
+						: new JSONObject(rawContent);
+			} catch (JSONException e) {
+				content = new JSONObject();
+			}
+			rawContent = null;
+		}
 		return content;
 	}
 
 	public void setContent(JSONObject content) {
 		this.content = content;
+		this.rawContent = null;
+	}
+
+	/** The column of {@link #cursorFieldValues} with the field value. */
+	public static final String KEY_FIELD_VALUE = MessageFields.KEY_VALUE;
+
+	private static final int FIELD_VALUES_LIMIT = 20;
+
+	private static final String FIELD_VALUES_QUERY = "select min("
+			+ MessageFields.KEY_MESSAGE_ID + ") as _id, "
+			+ MessageFields.KEY_VALUE + ", count(*) as _count from "
+			+ MessageFields.TABLE + " where " + MessageFields.KEY_KEY
+			+ "=? AND " + MessageFields.KEY_VALUE + " like ? escape '\\' group by "
+			+ MessageFields.KEY_VALUE + " order by _count DESC limit "
+			+ FIELD_VALUES_LIMIT;
+
+	/**
+	 * Get a cursor over the distinct values of a content field across all
+	 * messages that start with the given text, with the number of messages
+	 * having each value, most frequent first. Reads message_fields only, so
+	 * no content is parsed; still a query, so not for the UI thread.
+	 * 
+	 * @param context
+	 * @param key
+	 *            e.g. "awf_location".
+	 * @param prefix
+	 * @return
+	 */
+	public Cursor cursorFieldValues(Context context, String key, String prefix) {
+		String pattern = prefix.replace("\\", "\\\\").replace("%", "\\%")
+				.replace("_", "\\_") + "%";
+		return this.getDatabase(context).rawQuery(FIELD_VALUES_QUERY,
+				new String[] { key, pattern });
+	}
+
+	/**
+	 * Get the content as JSON text, without parsing it if it has not been
+	 * used yet.
+	 * 
+	 * @return
+	 */
+	private String getRawContent() {
+		if (content != null) {
+			return content.toString();
+		}
+		return rawContent == null ? "{}" : rawContent;
 	}
 
 	public class UnruleableMessage extends Exception {
@@ -1,16 +1,46 @@
 package com.alarmworkflow.eAlarm.database;
 
 import java.util.ArrayList;
+import java.util.TimeZone;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
+import android.util.Log;
 
 public class NotificationRule extends DatabaseObject<NotificationRule> {
-	// private static final String TAG = "eAlarm";
+	private static final String TAG = "eAlarm";
 
 	public static final NotificationRule FACTORY = new NotificationRule();
 
+	// Positions of the columns in DatabaseAdapter.RULE_PROJECTION.
+	private static final int COLUMN_ID = 0;
+	private static final int COLUMN_STARTTIME = 1;
+	private static final int COLUMN_TITLE = 2;
+	private static final int COLUMN_STOPTIME = 3;
+	private static final int COLUMN_PRIORITY = 4;
+	private static final int COLUMN_SEARCHTEXT = 5;
+	private static final int COLUMN_LOCAL_ENABLED = 6;
+	private static final int COLUMN_USE_GLOBAL_NOTIFICATION = 7;
+	private static final int COLUMN_VIBRATE = 8;
+	private static final int COLUMN_TOAST = 9;
+	private static final int COLUMN_RINGTONE = 10;
+	private static final int COLUMN_CUSTOM_RINGTONE = 11;
+	private static final int COLUMN_LED_FLASH = 12;
+	private static final int COLUMN_SPEAK_MESSAGE = 13;
+	private static final int COLUMN_OVERWRITE_SYSTEM = 14;
+	private static final int COLUMN_UNLOCK = 15;
+	private static final int COLUMN_OPEN = 16;
+	private static final int COLUMN_RETENTION_DAYS = 17;
+	private static final int COLUMN_RETENTION_COUNT = 18;
+	private static final int COLUMN_RETENTION_KEEP_UNSEEN = 19;
+
+	// Stands in for a search text that is not a valid pattern; never matches.
+	private static final Pattern INVALID_PATTERN = Pattern.compile("(?!)");
+
 	private String title = null;
 	private Boolean localEnabled = null;
 	private Boolean useGlobalNotification = true;
@@ -25,8 +55,15 @@ public class NotificationRule extends DatabaseObject<NotificationRule> {
 	private Boolean unlock = false;
 	private String startTime = "00:00";
 	private String stopTime = "00:00";
+	// startTime and stopTime, parsed.
+	private ActivationWindow window = new ActivationWindow(startTime, stopTime);
 	private int priority = 0;
 	private String searchText = "";
+	// Compiled from searchText on first use, NULL until then.
+	private volatile Pattern searchPattern = null;
+	private int retentionDays = 0;
+	private int retentionCount = 0;
+	private Boolean retentionKeepUnseen = true;
 	
 
 	/**
@@ -120,6 +157,31 @@ public class NotificationRule extends DatabaseObject<NotificationRule> {
 				DatabaseAdapter.KEY_TITLE + " ASC");
 	}
 
+	/**
+	 * Get a rule by ID from the {@link RuleRepository}, so that listing
+	 * messages does not load the rule once per message. Returns NULL if the
+	 * rule does not exist. The rule is shared and must not be changed.
+	 * 
+	 * @param context
+	 * @param id
+	 * @return
+	 */
+	public NotificationRule getCached(Context context, Long id) {
+		return RuleRepository.get(context).get(id);
+	}
+
+	@Override
+	public void save(Context context) {
+		super.save(context);
+		RuleRepository.saved(context, this.getId());
+	}
+
+	@Override
+	public void deleteById(Context context, Long id) {
+		super.deleteById(context, id);
+		RuleRepository.deleted(id);
+	}
+
 	public int countRules(Context context) {
 		String query = null;
 		String[] queryParams = null;
@@ -155,55 +217,53 @@ public class NotificationRule extends DatabaseObject<NotificationRule> {
 				this.getOverwritesystem() ? 1 : 0);
 		values.put(DatabaseAdapter.KEY_UNLOCK, this.getUnlock() ? 1 : 0);
 		values.put(DatabaseAdapter.KEY_OPEN, this.getOpen() ? 1 : 0);
+		values.put(DatabaseAdapter.KEY_RETENTION_DAYS, this.getRetentionDays());
+		values.put(DatabaseAdapter.KEY_RETENTION_COUNT,
+				this.getRetentionCount());
+		values.put(DatabaseAdapter.KEY_RETENTION_KEEP_UNSEEN,
+				this.getRetentionKeepUnseen() ? 1 : 0);
 		return values;
 	}
 
 	@Override
-	protected NotificationRule inflate(Context context, Cursor cursor) {
+	protected NotificationRule inflate(Context context, Cursor cursor,
+			int[] columns) {
 		NotificationRule rule = new NotificationRule();
-		rule.setId(cursor.getLong(cursor.getColumnIndex(DatabaseAdapter.KEY_ID)));
-		rule.setLocalEnabled(cursor.getLong(cursor
-				.getColumnIndex(DatabaseAdapter.KEY_LOCAL_ENABLED)) == 0 ? false
+		rule.setId(cursor.getLong(columns[COLUMN_ID]));
+		rule.setLocalEnabled(cursor.getLong(columns[COLUMN_LOCAL_ENABLED]) == 0 ? false
 				: true);
-		rule.setTitle(cursor.getString(cursor
-				.getColumnIndex(DatabaseAdapter.KEY_TITLE)));
+		rule.setTitle(cursor.getString(columns[COLUMN_TITLE]));
 
-		rule.setUseGlobalNotification(cursor.getLong(cursor
-				.getColumnIndex(DatabaseAdapter.KEY_USE_GLOBAL_NOTIFICATION)) == 0 ? false
+		rule.setUseGlobalNotification(cursor
+				.getLong(columns[COLUMN_USE_GLOBAL_NOTIFICATION]) == 0 ? false
 				: true);
-		rule.setVibrate(cursor.getLong(cursor
-				.getColumnIndex(DatabaseAdapter.KEY_VIBRATE)) == 0 ? false
+		rule.setVibrate(cursor.getLong(columns[COLUMN_VIBRATE]) == 0 ? false
 				: true);
-		rule.setToast(cursor.getLong(cursor
-				.getColumnIndex(DatabaseAdapter.KEY_TOAST)) == 0 ? false : true);
-		rule.setRingtone(cursor.getLong(cursor
-				.getColumnIndex(DatabaseAdapter.KEY_RINGTONE)) == 0 ? false
+		rule.setToast(cursor.getLong(columns[COLUMN_TOAST]) == 0 ? false
 				: true);
-		rule.setLedFlash(cursor.getLong(cursor
-				.getColumnIndex(DatabaseAdapter.KEY_LED_FLASH)) == 0 ? false
+		rule.setRingtone(cursor.getLong(columns[COLUMN_RINGTONE]) == 0 ? false
 				: true);
-		rule.setCustomRingtone(cursor.getString(cursor
-				.getColumnIndex(DatabaseAdapter.KEY_CUSTOM_RINGTONE)));
-		rule.setSpeakMessage(cursor.getLong(cursor
-				.getColumnIndex(DatabaseAdapter.KEY_SPEAK_MESSAGE)) == 0 ? false
+		rule.setLedFlash(cursor.getLong(columns[COLUMN_LED_FLASH]) == 0 ? false
 				: true);
-		rule.setOverwritesystem(cursor.getInt(cursor
-				.getColumnIndex(DatabaseAdapter.KEY_OVERWRITE_SYSTEM)) == 0 ? false
+		rule.setCustomRingtone(cursor.getString(columns[COLUMN_CUSTOM_RINGTONE]));
+		rule.setSpeakMessage(cursor.getLong(columns[COLUMN_SPEAK_MESSAGE]) == 0 ? false
 				: true);
+		rule.setOverwritesystem(cursor
+				.getInt(columns[COLUMN_OVERWRITE_SYSTEM]) == 0 ? false : true);
 
-		rule.setPriority(cursor.getInt(cursor
-				.getColumnIndex(DatabaseAdapter.KEY_PRIORITY)));
-		rule.setSearchText(cursor.getString(cursor
-				.getColumnIndex(DatabaseAdapter.KEY_SEARCHTEXT)));
-		rule.setStartTime(cursor.getString(cursor
-				.getColumnIndex(DatabaseAdapter.KEY_STARTTIME)));
-		rule.setStopTime(cursor.getString(cursor
-				.getColumnIndex(DatabaseAdapter.KEY_STOPTIME)));
-
-		rule.setOpen(cursor.getInt(cursor
-				.getColumnIndex(DatabaseAdapter.KEY_OPEN)) == 0 ? false : true);
-		rule.setUnlock(cursor.getInt(cursor
-				.getColumnIndex(DatabaseAdapter.KEY_UNLOCK)) == 0 ? false
+		rule.setPriority(cursor.getInt(columns[COLUMN_PRIORITY]));
+		rule.setSearchText(cursor.getString(columns[COLUMN_SEARCHTEXT]));
+		rule.setStartTime(cursor.getString(columns[COLUMN_STARTTIME]));
+		rule.setStopTime(cursor.getString(columns[COLUMN_STOPTIME]));
+
+		rule.setOpen(cursor.getInt(columns[COLUMN_OPEN]) == 0 ? false : true);
+		rule.setUnlock(cursor.getInt(columns[COLUMN_UNLOCK]) == 0 ? false
+				: true);
+
+		rule.setRetentionDays(cursor.getInt(columns[COLUMN_RETENTION_DAYS]));
+		rule.setRetentionCount(cursor.getInt(columns[COLUMN_RETENTION_COUNT]));
+		rule.setRetentionKeepUnseen(cursor
+				.getInt(columns[COLUMN_RETENTION_KEEP_UNSEEN]) == 0 ? false
 				: true);
 		return rule;
 	}
@@ -227,6 +287,7 @@ public class NotificationRule extends DatabaseObject<NotificationRule> {
 
 	public void setStartTime(String startTime) {
 		this.startTime = startTime;
+		this.window = new ActivationWindow(this.startTime, this.stopTime);
 	}
 
 	public String getStopTime() {
@@ -235,6 +296,19 @@ public class NotificationRule extends DatabaseObject<NotificationRule> {
 
 	public void setStopTime(String stopTime) {
 		this.stopTime = stopTime;
+		this.window = new ActivationWindow(this.startTime, this.stopTime);
+	}
+
+	/**
+	 * Check whether the rule is active at the given local time, see
+	 * {@link ActivationWindow#isActiveAt(int)}.
+	 * 
+	 * @param minuteOfDay
+	 *            see {@link ActivationWindow#minuteOfDay(long, TimeZone)}.
+	 * @return
+	 */
+	public boolean isActiveAt(int minuteOfDay) {
+		return window.isActiveAt(minuteOfDay);
 	}
 
 	public int getPriority() {
@@ -251,6 +325,33 @@ public class NotificationRule extends DatabaseObject<NotificationRule> {
 
 	public void setSearchText(String searchText) {
 		this.searchText = searchText;
+		this.searchPattern = null;
+	}
+
+	/**
+	 * Check whether the search text matches the empty string, the whole
+	 * title or the whole message. The pattern is compiled once per rule; an
+	 * invalid pattern matches nothing.
+	 * 
+	 * @param title
+	 * @param message
+	 * @return
+	 */
+	public boolean matchesSearchText(String title, String message) {
+		Pattern pattern = this.searchPattern;
+		if (pattern == null) {
+			try {
+				pattern = Pattern.compile(this.searchText);
+			} catch (PatternSyntaxException e) {
+				Log.w(TAG, "Invalid search text for rule " + this.getId()
+						+ ": " + e.getDescription());
+				pattern = INVALID_PATTERN;
+			}
+			this.searchPattern = pattern;
+		}
+		return pattern.matcher("").matches()
+				|| (title != null && pattern.matcher(title).matches())
+				|| (message != null && pattern.matcher(message).matches());
 	}
 
 	@Override
@@ -276,4 +377,46 @@ public class NotificationRule extends DatabaseObject<NotificationRule> {
 	public void setOpen(Boolean open) {
 		this.open = open;
 	}
+
+	/**
+	 * Get the number of days messages of this rule are kept, or 0 to keep
+	 * them regardless of age.
+	 * 
+	 * @return
+	 */
+	public int getRetentionDays() {
+		return retentionDays;
+	}
+
+	public void setRetentionDays(int retentionDays) {
+		this.retentionDays = retentionDays;
+	}
+
+	/**
+	 * Get the number of newest messages of this rule that are kept, or 0 to
+	 * keep any number.
+	 * 
+	 * @return
+	 */
+	public int getRetentionCount() {
+		return retentionCount;
+	}
+
+	public void setRetentionCount(int retentionCount) {
+		this.retentionCount = retentionCount;
+	}
+
+	/**
+	 * Whether unseen messages are kept even if the retention limits would
+	 * remove them.
+	 * 
+	 * @return
+	 */
+	public Boolean getRetentionKeepUnseen() {
+		return retentionKeepUnseen;
+	}
+
+	public void setRetentionKeepUnseen(Boolean retentionKeepUnseen) {
+		this.retentionKeepUnseen = retentionKeepUnseen;
+	}
 }
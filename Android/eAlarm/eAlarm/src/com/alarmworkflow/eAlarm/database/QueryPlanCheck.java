@@ -0,0 +1,129 @@
+package com.alarmworkflow.eAlarm.database;
+
+import java.util.Arrays;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+/**
+ * Runs EXPLAIN QUERY PLAN over the hot message queries and reports any that
+ * fall back to a full table scan or a temporary sort.
+ *
+ * This is a development aid: it is only run on debuggable builds, when the
+ * shared connection is first opened.
+ */
+final class QueryPlanCheck {
+	private static final String TAG = "eAlarm";
+
+	private static final String MESSAGES = DatabaseObject.DATABASE_TABLE_MESSAGES;
+	private static final String RULE = DatabaseAdapter.KEY_RULE_ID + "=?";
+	private static final int PAGE_SIZE = 50;
+	private static final int RETENTION_COUNT = 100;
+
+	/**
+	 * The queries to check, as the code runs them. Every '?' is bound to a
+	 * dummy value. The total unread count reads all of rule_unread, one row
+	 * per rule, and is left out.
+	 */
+	private static final String[] QUERIES = new String[] {
+			// NotificationMessage
+			NotificationMessage.COUNT_UNREAD_FOR_RULE,
+			"select * from " + MESSAGES + " where " + RULE + " AND "
+					+ DatabaseAdapter.KEY_SEEN + "=0",
+			NotificationMessage.pageQuery(true, PAGE_SIZE),
+			NotificationMessage.pageQuery(false, PAGE_SIZE),
+			NotificationMessage.searchQuery(true),
+			NotificationMessage.searchQuery(false),
+			"update " + MESSAGES + " set " + DatabaseAdapter.KEY_SEEN
+					+ "=? where " + RULE,
+			"delete from " + MESSAGES + " where " + RULE + " AND "
+					+ DatabaseAdapter.KEY_SEEN + "= 1",
+			"delete from " + MESSAGES + " where " + DatabaseAdapter.KEY_SEEN
+					+ "= 1",
+			// MessageRetention
+			MessageRetention.countCutoffQuery(RETENTION_COUNT),
+			deleteQuery(MessageRetention.ageSelection(true)),
+			deleteQuery(MessageRetention.ageSelection(false)),
+			deleteQuery(MessageRetention.countSelection(true)),
+			deleteQuery(MessageRetention.countSelection(false)) };
+
+	private QueryPlanCheck() {
+	}
+
+	private static String deleteQuery(String selection) {
+		return "delete from " + MESSAGES + " where "
+				+ MessageRetention.deleteWhere(selection);
+	}
+
+	/**
+	 * Check all hot queries, logging a warning for every one that scans a
+	 * whole table.
+	 *
+	 * @param db
+	 * @return the number of queries that need attention.
+	 */
+	static int run(SQLiteDatabase db) {
+		int problems = 0;
+		for (String query : QUERIES) {
+			String plan = explain(db, query);
+			if (plan != null) {
+				Log.w(TAG, "Query plan needs attention: " + query + " -> "
+						+ plan);
+				problems++;
+			}
+		}
+		return problems;
+	}
+
+	/**
+	 * Explain the query, returning the offending plan steps or NULL if it
+	 * uses indexes only.
+	 */
+	private static String explain(SQLiteDatabase db, String query) {
+		String[] args = new String[query.length()
+				- query.replace("?", "").length()];
+		Arrays.fill(args, "1");
+		Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + query, args);
+		StringBuilder problems = null;
+		String tempSort = null;
+		boolean fullTextMatch = false;
+		try {
+			int detailColumn = cursor.getColumnIndex("detail");
+			while (cursor.moveToNext()) {
+				String detail = cursor.getString(detailColumn);
+				// A virtual table "scan" with a non-zero index is the FTS
+				// lookup for the MATCH.
+				boolean match = detail.contains("VIRTUAL TABLE INDEX")
+						&& !detail.contains("INDEX 0:");
+				fullTextMatch |= match;
+				boolean fullScan = detail.startsWith("SCAN")
+						&& !detail.contains("USING")
+						&& !detail.contains("CONSTANT ROW") && !match;
+				if (detail.contains("TEMP B-TREE")) {
+					tempSort = detail;
+				}
+				if (fullScan) {
+					problems = append(problems, detail);
+				}
+			}
+		} finally {
+			cursor.close();
+		}
+		// Sorting the matches of a full-text search is expected; they are
+		// few compared to the history.
+		if (tempSort != null && !fullTextMatch) {
+			problems = append(problems, tempSort);
+		}
+		return problems == null ? null : problems.toString();
+	}
+
+	private static StringBuilder append(StringBuilder problems, String detail) {
+		if (problems == null) {
+			problems = new StringBuilder();
+		} else {
+			problems.append("; ");
+		}
+		return problems.append(detail);
+	}
+}
@@ -0,0 +1,159 @@
+package com.alarmworkflow.eAlarm.database;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import android.util.Log;
+
+/**
+ * Latency statistics for the database calls of {@link DatabaseObject}.
+ *
+ * Every call is counted in a histogram per operation and table, with
+ * power-of-two millisecond buckets. Calls slower than the threshold are
+ * also kept in a small ring buffer with their SQL. Both live in memory only
+ * and start empty with each process; {@link #getReport()} renders them for
+ * the settings screen.
+ */
+public final class QueryStats {
+	private static final String TAG = "eAlarm";
+
+	static final String INSERT = "insert";
+	static final String UPDATE = "update";
+	static final String DELETE = "delete";
+	static final String LIST = "list";
+	static final String COUNT = "count";
+	static final String QUERY = "query";
+
+	// Upper bounds of the histogram buckets in milliseconds; the last bucket
+	// takes everything slower.
+	private static final long[] BUCKET_LIMITS_MS = new long[] { 1, 2, 4, 8,
+			16, 32, 64, 128, 256, 512 };
+	private static final int SLOW_LOG_SIZE = 32;
+
+	private static final Map<String, Histogram> histograms = new TreeMap<String, Histogram>();
+	private static final String[] slowLog = new String[SLOW_LOG_SIZE];
+	private static int slowLogNext = 0;
+	private static volatile long slowThresholdMs = 50;
+
+	private static class Histogram {
+		final long[] buckets = new long[BUCKET_LIMITS_MS.length + 1];
+		long count;
+		long totalNanos;
+		long maxNanos;
+	}
+
+	private QueryStats() {
+	}
+
+	/**
+	 * Get the start time of a call, to pass to
+	 * {@link #record(String, String, String, long)}.
+	 *
+	 * @return
+	 */
+	static long start() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Record a finished call.
+	 *
+	 * @param operation
+	 * @param table
+	 * @param sql
+	 *            the statement or selection, for the slow-query log.
+	 * @param startNanos
+	 *            the value of {@link #start()} before the call.
+	 */
+	static void record(String operation, String table, String sql,
+			long startNanos) {
+		long nanos = System.nanoTime() - startNanos;
+		long ms = nanos / 1000000;
+		int bucket = 0;
+		while (bucket < BUCKET_LIMITS_MS.length
+				&& ms >= BUCKET_LIMITS_MS[bucket]) {
+			bucket++;
+		}
+		synchronized (histograms) {
+			String key = operation + " " + table;
+			Histogram histogram = histograms.get(key);
+			if (histogram == null) {
+				histogram = new Histogram();
+				histograms.put(key, histogram);
+			}
+			histogram.buckets[bucket]++;
+			histogram.count++;
+			histogram.totalNanos += nanos;
+			histogram.maxNanos = Math.max(histogram.maxNanos, nanos);
+
+			if (ms >= slowThresholdMs) {
+				String entry = String.format("%tT %d ms %s %s: %s",
+						System.currentTimeMillis(), ms, operation, table, sql);
+				slowLog[slowLogNext] = entry;
+				slowLogNext = (slowLogNext + 1) % SLOW_LOG_SIZE;
+				Log.w(TAG, "Slow query: " + entry);
+			}
+		}
+	}
+
+	/**
+	 * Set the duration from which calls are written to the slow-query log.
+	 *
+	 * @param thresholdMs
+	 */
+	public static void setSlowThresholdMs(long thresholdMs) {
+		slowThresholdMs = thresholdMs;
+	}
+
+	/**
+	 * Render the histograms and the slow-query log, newest entry first.
+	 *
+	 * @return
+	 */
+	public static String getReport() {
+		StringBuilder report = new StringBuilder();
+		synchronized (histograms) {
+			for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+				Histogram histogram = entry.getValue();
+				report.append(entry.getKey()).append(": ")
+						.append(histogram.count).append("x, avg ")
+						.append(histogram.totalNanos / histogram.count / 1000)
+						.append(" µs, max ")
+						.append(histogram.maxNanos / 1000000).append(" ms\n");
+				for (int i = 0; i < histogram.buckets.length; i++) {
+					if (histogram.buckets[i] == 0) {
+						continue;
+					}
+					report.append("  ")
+							.append(i < BUCKET_LIMITS_MS.length ? "< "
+									+ BUCKET_LIMITS_MS[i] : ">= "
+									+ BUCKET_LIMITS_MS[i - 1]).append(" ms: ")
+							.append(histogram.buckets[i]).append('\n');
+				}
+			}
+			report.append("\nLangsam (>= ").append(slowThresholdMs)
+					.append(" ms):\n");
+			for (int i = 1; i <= SLOW_LOG_SIZE; i++) {
+				String entry = slowLog[(slowLogNext - i + SLOW_LOG_SIZE)
+						% SLOW_LOG_SIZE];
+				if (entry != null) {
+					report.append(entry).append('\n');
+				}
+			}
+		}
+		return report.toString();
+	}
+
+	/**
+	 * Clear all statistics, e.g. before measuring a change.
+	 */
+	public static void reset() {
+		synchronized (histograms) {
+			histograms.clear();
+			for (int i = 0; i < SLOW_LOG_SIZE; i++) {
+				slowLog[i] = null;
+			}
+			slowLogNext = 0;
+		}
+	}
+}
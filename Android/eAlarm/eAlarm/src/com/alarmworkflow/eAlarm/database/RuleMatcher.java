@@ -0,0 +1,290 @@
+package com.alarmworkflow.eAlarm.database;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Finds the rules whose search text matches a message, without running
+ * every rule's pattern.
+ *
+ * For each pattern the longest literal text that every match must contain
+ * is extracted (e.g. "RTW" from "RTW [0-9]+.*"). All literals go into one
+ * Aho-Corasick automaton, so title and message are scanned once no matter
+ * how many rules there are. Only rules whose literal occurs, and rules
+ * without a usable literal, run their full pattern.
+ *
+ * A matcher never changes after construction and may be shared between
+ * threads.
+ */
+final class RuleMatcher {
+	private static final class Node {
+		// Sorted, so children can be found by binary search.
+		char[] keys = new char[0];
+		Node[] children = new Node[0];
+		Node fail;
+		// Rules whose literal ends here, including those of the fail chain.
+		int[] outputs = new int[0];
+
+		Node child(char key) {
+			int low = 0;
+			int high = keys.length - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				if (keys[mid] < key) {
+					low = mid + 1;
+				} else if (keys[mid] > key) {
+					high = mid - 1;
+				} else {
+					return children[mid];
+				}
+			}
+			return null;
+		}
+
+		Node addChild(char key) {
+			int position = 0;
+			while (position < keys.length && keys[position] < key) {
+				position++;
+			}
+			char[] newKeys = new char[keys.length + 1];
+			Node[] newChildren = new Node[children.length + 1];
+			System.arraycopy(keys, 0, newKeys, 0, position);
+			System.arraycopy(children, 0, newChildren, 0, position);
+			System.arraycopy(keys, position, newKeys, position + 1,
+					keys.length - position);
+			System.arraycopy(children, position, newChildren, position + 1,
+					children.length - position);
+			Node child = new Node();
+			newKeys[position] = key;
+			newChildren[position] = child;
+			keys = newKeys;
+			children = newChildren;
+			return child;
+		}
+	}
+
+	private final NotificationRule[] rules;
+	// Rules that have to run their pattern on every message.
+	private final boolean[] alwaysCandidate;
+	private final Node root = new Node();
+
+	RuleMatcher(List<NotificationRule> rules) {
+		this.rules = rules.toArray(new NotificationRule[rules.size()]);
+		this.alwaysCandidate = new boolean[this.rules.length];
+		for (int i = 0; i < this.rules.length; i++) {
+			String literal = requiredLiteral(this.rules[i].getSearchText());
+			if (literal == null) {
+				alwaysCandidate[i] = true;
+			} else {
+				addLiteral(literal, i);
+			}
+		}
+		buildFailLinks();
+	}
+
+	/**
+	 * Get the rules whose search text matches the title or the message, in
+	 * the order the matcher was built with.
+	 *
+	 * @param title
+	 * @param message
+	 * @return
+	 */
+	ArrayList<NotificationRule> match(String title, String message) {
+		boolean[] candidates = alwaysCandidate.clone();
+		scan(title, candidates);
+		scan(message, candidates);
+		ArrayList<NotificationRule> matches = new ArrayList<NotificationRule>();
+		for (int i = 0; i < rules.length; i++) {
+			if (candidates[i] && rules[i].matchesSearchText(title, message)) {
+				matches.add(rules[i]);
+			}
+		}
+		return matches;
+	}
+
+	private void addLiteral(String literal, int rule) {
+		Node node = root;
+		for (int i = 0; i < literal.length(); i++) {
+			Node next = node.child(literal.charAt(i));
+			node = next != null ? next : node.addChild(literal.charAt(i));
+		}
+		node.outputs = append(node.outputs, new int[] { rule });
+	}
+
+	private void buildFailLinks() {
+		root.fail = root;
+		LinkedList<Node> queue = new LinkedList<Node>();
+		for (Node child : root.children) {
+			child.fail = root;
+			queue.add(child);
+		}
+		while (!queue.isEmpty()) {
+			Node node = queue.removeFirst();
+			for (int i = 0; i < node.keys.length; i++) {
+				Node child = node.children[i];
+				Node fail = node.fail;
+				while (fail != root && fail.child(node.keys[i]) == null) {
+					fail = fail.fail;
+				}
+				Node target = fail.child(node.keys[i]);
+				child.fail = target != null ? target : root;
+				child.outputs = append(child.outputs, child.fail.outputs);
+				queue.add(child);
+			}
+		}
+	}
+
+	private void scan(String text, boolean[] candidates) {
+		if (text == null) {
+			return;
+		}
+		Node node = root;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			Node next = node.child(c);
+			while (next == null && node != root) {
+				node = node.fail;
+				next = node.child(c);
+			}
+			node = next != null ? next : root;
+			for (int rule : node.outputs) {
+				candidates[rule] = true;
+			}
+		}
+	}
+
+	private static int[] append(int[] first, int[] second) {
+		if (second.length == 0) {
+			return first;
+		}
+		int[] result = new int[first.length + second.length];
+		System.arraycopy(first, 0, result, 0, first.length);
+		System.arraycopy(second, 0, result, first.length, second.length);
+		return result;
+	}
+
+	/**
+	 * Get the longest literal text that every full match of the pattern
+	 * contains, or NULL if none can be determined. Only literals outside of
+	 * groups count, and anything unusual (alternation, inline flags,
+	 * quoting, escapes with arguments) gives up rather than risk missing a
+	 * rule.
+	 *
+	 * @param regex
+	 * @return
+	 */
+	static String requiredLiteral(String regex) {
+		if (regex == null || regex.contains("\\Q")) {
+			return null;
+		}
+		for (int i = regex.indexOf("(?"); i >= 0; i = regex.indexOf("(?",
+				i + 1)) {
+			// Inline flags such as (?i) change how literals match.
+			if (i + 2 < regex.length()
+					&& "idmsuxU-".indexOf(regex.charAt(i + 2)) >= 0) {
+				return null;
+			}
+		}
+
+		String best = "";
+		StringBuilder run = new StringBuilder();
+		int depth = 0;
+		int i = 0;
+		while (i < regex.length()) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				if (i + 1 >= regex.length()) {
+					return null;
+				}
+				char escaped = regex.charAt(i + 1);
+				if ("xu0cpPkN".indexOf(escaped) >= 0) {
+					return null;
+				}
+				if (depth == 0 && !Character.isLetterOrDigit(escaped)) {
+					run.append(escaped);
+				} else {
+					// A class like \d, a boundary or a back reference.
+					best = longer(best, run);
+				}
+				i += 2;
+				continue;
+			}
+			if (c == '[') {
+				best = longer(best, run);
+				i = skipClass(regex, i);
+				if (i < 0) {
+					return null;
+				}
+				continue;
+			}
+			if (c == '(') {
+				best = longer(best, run);
+				depth++;
+			} else if (c == ')') {
+				if (--depth < 0) {
+					return null;
+				}
+			} else if (depth > 0) {
+				// Group contents may be optional or alternatives.
+			} else if (c == '|') {
+				return null;
+			} else if (c == '*' || c == '?' || c == '{') {
+				// The previous character is optional or repeated.
+				if (run.length() > 0) {
+					run.setLength(run.length() - 1);
+				}
+				best = longer(best, run);
+				if (c == '{') {
+					i = regex.indexOf('}', i);
+					if (i < 0) {
+						return null;
+					}
+				}
+			} else if (c == '+' || c == '.' || c == '^' || c == '$') {
+				// After '+' the previous character is still required once.
+				best = longer(best, run);
+			} else {
+				run.append(c);
+			}
+			i++;
+		}
+		best = longer(best, run);
+		return best.length() > 0 ? best : null;
+	}
+
+	// Keep the longer of best and the finished run, and start a new run.
+	private static String longer(String best, StringBuilder run) {
+		if (run.length() > best.length()) {
+			best = run.toString();
+		}
+		run.setLength(0);
+		return best;
+	}
+
+	// Get the index after the character class starting at start, or -1.
+	private static int skipClass(String regex, int start) {
+		int i = start + 1;
+		if (i < regex.length() && regex.charAt(i) == '^') {
+			i++;
+		}
+		if (i < regex.length() && regex.charAt(i) == ']') {
+			i++;
+		}
+		while (i < regex.length()) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				i += 2;
+			} else if (c == '[') {
+				// Nested classes and intersections are not worth parsing.
+				return -1;
+			} else if (c == ']') {
+				return i + 1;
+			} else {
+				i++;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,180 @@
+package com.alarmworkflow.eAlarm.database;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.Context;
+
+/**
+ * All rules of the app in memory, loaded once per process.
+ *
+ * Readers get a {@link Snapshot}: an immutable list of rules with a version
+ * number. Saving or deleting a rule builds a new snapshot with a fresh copy
+ * of the stored rule and swaps it in, so readers never query the database
+ * and never see a rule while it is being edited. The rules in a snapshot
+ * are shared and must not be changed; edit a copy from
+ * {@link NotificationRule#get(Context, Long)} and save it.
+ */
+public final class RuleRepository {
+	private static volatile Snapshot current = null;
+	private static long nextVersion = 1;
+
+	/**
+	 * One immutable state of the rules.
+	 */
+	public static final class Snapshot {
+		private final long version;
+		private final List<NotificationRule> rules;
+		private final Map<Long, NotificationRule> byId;
+		// Built on first use; any thread may build it, all get the same
+		// result.
+		private volatile RuleMatcher matcher = null;
+
+		private Snapshot(long version, ArrayList<NotificationRule> rules) {
+			Collections.sort(rules, BY_TITLE);
+			HashMap<Long, NotificationRule> byId = new HashMap<Long, NotificationRule>();
+			for (NotificationRule rule : rules) {
+				byId.put(rule.getId(), rule);
+			}
+			this.version = version;
+			this.rules = Collections.unmodifiableList(rules);
+			this.byId = byId;
+		}
+
+		/**
+		 * Get the version of this snapshot. A later snapshot has a higher
+		 * version.
+		 *
+		 * @return
+		 */
+		public long getVersion() {
+			return version;
+		}
+
+		/**
+		 * Get all rules, ordered by title.
+		 *
+		 * @return
+		 */
+		public List<NotificationRule> getRules() {
+			return rules;
+		}
+
+		/**
+		 * Get a rule by ID, or NULL if it does not exist.
+		 *
+		 * @param id
+		 * @return
+		 */
+		public NotificationRule get(Long id) {
+			return byId.get(id);
+		}
+
+		/**
+		 * Get the rules whose search text matches the title or the message,
+		 * ordered by title. The cost grows with the length of the texts,
+		 * not with the number of rules.
+		 *
+		 * @param title
+		 * @param message
+		 * @return
+		 */
+		public ArrayList<NotificationRule> match(String title, String message) {
+			RuleMatcher matcher = this.matcher;
+			if (matcher == null) {
+				matcher = new RuleMatcher(rules);
+				this.matcher = matcher;
+			}
+			return matcher.match(title, message);
+		}
+	}
+
+	// The order of NotificationRule.listAll().
+	private static final Comparator<NotificationRule> BY_TITLE = new Comparator<NotificationRule>() {
+		public int compare(NotificationRule first, NotificationRule second) {
+			if (first.getTitle() == null) {
+				return second.getTitle() == null ? 0 : -1;
+			}
+			if (second.getTitle() == null) {
+				return 1;
+			}
+			return first.getTitle().compareTo(second.getTitle());
+		}
+	};
+
+	private RuleRepository() {
+	}
+
+	/**
+	 * Get the current snapshot, loading the rules on first use.
+	 *
+	 * @param context
+	 * @return
+	 */
+	public static Snapshot get(Context context) {
+		Snapshot snapshot = current;
+		if (snapshot == null) {
+			synchronized (RuleRepository.class) {
+				if (current == null) {
+					current = new Snapshot(nextVersion++,
+							NotificationRule.FACTORY.listAll(context));
+				}
+				snapshot = current;
+			}
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Put the stored state of a saved rule into a new snapshot.
+	 *
+	 * @param context
+	 * @param id
+	 */
+	static void saved(Context context, Long id) {
+		synchronized (RuleRepository.class) {
+			if (current == null || id == null) {
+				// Not loaded yet; the first get() reads the saved rule.
+				return;
+			}
+			// A copy of its own, so later edits of the saved object do not
+			// leak into the snapshot.
+			NotificationRule stored = NotificationRule.FACTORY.get(context, id);
+			ArrayList<NotificationRule> rules = without(current, id);
+			if (stored != null) {
+				rules.add(stored);
+			}
+			current = new Snapshot(nextVersion++, rules);
+		}
+	}
+
+	/**
+	 * Remove a deleted rule with a new snapshot.
+	 *
+	 * @param id
+	 */
+	static void deleted(Long id) {
+		synchronized (RuleRepository.class) {
+			if (current == null || current.get(id) == null) {
+				return;
+			}
+			current = new Snapshot(nextVersion++, without(current, id));
+		}
+	}
+
+	private static ArrayList<NotificationRule> without(Snapshot snapshot,
+			Long id) {
+		ArrayList<NotificationRule> rules = new ArrayList<NotificationRule>(
+				snapshot.rules.size() + 1);
+		for (NotificationRule rule : snapshot.rules) {
+			if (!rule.getId().equals(id)) {
+				rules.add(rule);
+			}
+		}
+		return rules;
+	}
+}
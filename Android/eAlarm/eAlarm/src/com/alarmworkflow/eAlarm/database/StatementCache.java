@@ -0,0 +1,279 @@
+package com.alarmworkflow.eAlarm.database;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+
+/**
+ * Per-table cache of precompiled statements used by {@link DatabaseObject}.
+ *
+ * Insert, update-by-id, delete-by-id and count statements are compiled once
+ * per table (and column set or selection) and then only rebound, so
+ * steady-state alarm handling does not compile any SQL. Row queries cannot
+ * be expressed as SQLiteStatements; for those the SQL text is cached
+ * instead, which keeps it constant and lets SQLite's own per-connection
+ * statement cache reuse the prepared query.
+ *
+ * Statements are shared between threads, so every use of one is
+ * synchronized on the statement itself.
+ */
+final class StatementCache {
+	private static final HashMap<String, StatementCache> caches = new HashMap<String, StatementCache>();
+
+	private final SQLiteDatabase database;
+	private final String table;
+	private final String selectClause;
+	private final HashMap<String, SQLiteStatement> inserts = new HashMap<String, SQLiteStatement>();
+	private final HashMap<String, SQLiteStatement> updates = new HashMap<String, SQLiteStatement>();
+	private final HashMap<String, SQLiteStatement> counts = new HashMap<String, SQLiteStatement>();
+	private final HashMap<String, SQLiteStatement> compiled = new HashMap<String, SQLiteStatement>();
+	private final HashMap<String, String> queries = new HashMap<String, String>();
+	private SQLiteStatement deleteById;
+
+	private StatementCache(SQLiteDatabase database, String table,
+			String[] projection) {
+		this.database = database;
+		this.table = table;
+		this.selectClause = "select " + TextUtils.join(",", projection)
+				+ " from " + table;
+	}
+
+	/**
+	 * Get the cache for the given table on the given connection.
+	 *
+	 * @param database
+	 * @param table
+	 * @param projection
+	 * @return
+	 */
+	static synchronized StatementCache forTable(SQLiteDatabase database,
+			String table, String[] projection) {
+		StatementCache cache = caches.get(table);
+		if (cache == null || cache.database != database) {
+			cache = new StatementCache(database, table, projection);
+			caches.put(table, cache);
+		}
+		return cache;
+	}
+
+	/**
+	 * Insert a row, returning the new row ID or -1 on failure.
+	 *
+	 * @param values
+	 * @return
+	 */
+	long insert(ContentValues values) {
+		String[] columns = sortedColumns(values);
+		SQLiteStatement statement = getInsert(columns);
+		synchronized (statement) {
+			statement.clearBindings();
+			bindValues(statement, columns, values, 1);
+			return statement.executeInsert();
+		}
+	}
+
+	/**
+	 * Update the row with the given ID.
+	 *
+	 * @param id
+	 * @param values
+	 */
+	void updateById(long id, ContentValues values) {
+		String[] columns = sortedColumns(values);
+		SQLiteStatement statement = getUpdate(columns);
+		synchronized (statement) {
+			statement.clearBindings();
+			bindValues(statement, columns, values, 1);
+			statement.bindLong(columns.length + 1, id);
+			statement.execute();
+		}
+	}
+
+	/**
+	 * Delete the row with the given ID.
+	 *
+	 * @param id
+	 */
+	void deleteById(long id) {
+		SQLiteStatement statement = getDeleteById();
+		synchronized (statement) {
+			statement.clearBindings();
+			statement.bindLong(1, id);
+			statement.execute();
+		}
+	}
+
+	/**
+	 * Count the rows matching the selection.
+	 *
+	 * @param selection
+	 * @param selectionArgs
+	 * @return
+	 */
+	long count(String selection, String[] selectionArgs) {
+		SQLiteStatement statement = getCount(selection);
+		synchronized (statement) {
+			statement.clearBindings();
+			bindArgs(statement, selectionArgs);
+			return statement.simpleQueryForLong();
+		}
+	}
+
+	/**
+	 * Run a query that returns a single number, such as an aggregate.
+	 *
+	 * @param sql
+	 * @param args
+	 * @return
+	 */
+	long queryForLong(String sql, String[] args) {
+		SQLiteStatement statement = getCompiled(sql);
+		synchronized (statement) {
+			statement.clearBindings();
+			bindArgs(statement, args);
+			return statement.simpleQueryForLong();
+		}
+	}
+
+	/**
+	 * Run a statement that returns no rows, such as an insert into a side
+	 * table.
+	 *
+	 * @param sql
+	 * @param args
+	 */
+	void execute(String sql, Object[] args) {
+		SQLiteStatement statement = getCompiled(sql);
+		synchronized (statement) {
+			statement.clearBindings();
+			for (int i = 0; i < args.length; i++) {
+				DatabaseUtils.bindObjectToProgram(statement, i + 1, args[i]);
+			}
+			statement.execute();
+		}
+	}
+
+	/**
+	 * Get the SQL to list the projection with the given selection and order.
+	 * The selection must use '?' placeholders for its arguments.
+	 *
+	 * @param selection
+	 * @param sortOrder
+	 * @return
+	 */
+	synchronized String getQuery(String selection, String sortOrder) {
+		String key = selection + "|" + sortOrder;
+		String query = this.queries.get(key);
+		if (query == null) {
+			query = this.selectClause;
+			if (!TextUtils.isEmpty(selection)) {
+				query += " where " + selection;
+			}
+			if (!TextUtils.isEmpty(sortOrder)) {
+				query += " order by " + sortOrder;
+			}
+			this.queries.put(key, query);
+		}
+		return query;
+	}
+
+	private synchronized SQLiteStatement getInsert(String[] columns) {
+		String key = TextUtils.join(",", columns);
+		SQLiteStatement statement = this.inserts.get(key);
+		if (statement == null) {
+			StringBuilder sql = new StringBuilder("insert into ");
+			sql.append(this.table).append(" (").append(key)
+					.append(") values (");
+			for (int i = 0; i < columns.length; i++) {
+				sql.append(i == 0 ? "?" : ",?");
+			}
+			sql.append(")");
+			statement = this.database.compileStatement(sql.toString());
+			this.inserts.put(key, statement);
+		}
+		return statement;
+	}
+
+	private synchronized SQLiteStatement getUpdate(String[] columns) {
+		String key = TextUtils.join(",", columns);
+		SQLiteStatement statement = this.updates.get(key);
+		if (statement == null) {
+			StringBuilder sql = new StringBuilder("update ");
+			sql.append(this.table).append(" set ");
+			for (int i = 0; i < columns.length; i++) {
+				sql.append(i == 0 ? "" : ",").append(columns[i]).append("=?");
+			}
+			sql.append(" where ").append(DatabaseAdapter.KEY_ID).append("=?");
+			statement = this.database.compileStatement(sql.toString());
+			this.updates.put(key, statement);
+		}
+		return statement;
+	}
+
+	private synchronized SQLiteStatement getDeleteById() {
+		if (this.deleteById == null) {
+			this.deleteById = this.database.compileStatement("delete from "
+					+ this.table + " where " + DatabaseAdapter.KEY_ID + "=?");
+		}
+		return this.deleteById;
+	}
+
+	private synchronized SQLiteStatement getCount(String selection) {
+		String key = selection == null ? "" : selection;
+		SQLiteStatement statement = this.counts.get(key);
+		if (statement == null) {
+			String sql = "select count(*) from " + this.table;
+			if (!TextUtils.isEmpty(selection)) {
+				sql += " where " + selection;
+			}
+			statement = this.database.compileStatement(sql);
+			this.counts.put(key, statement);
+		}
+		return statement;
+	}
+
+	private synchronized SQLiteStatement getCompiled(String sql) {
+		SQLiteStatement statement = this.compiled.get(sql);
+		if (statement == null) {
+			statement = this.database.compileStatement(sql);
+			this.compiled.put(sql, statement);
+		}
+		return statement;
+	}
+
+	// ContentValues.keySet() needs API 11; valueSet() is there since API 1.
+	private static String[] sortedColumns(ContentValues values) {
+		TreeSet<String> keys = new TreeSet<String>();
+		for (Map.Entry<String, Object> entry : values.valueSet()) {
+			keys.add(entry.getKey());
+		}
+		return keys.toArray(new String[keys.size()]);
+	}
+
+	private static void bindValues(SQLiteStatement statement,
+			String[] columns, ContentValues values, int firstIndex) {
+		for (int i = 0; i < columns.length; i++) {
+			DatabaseUtils.bindObjectToProgram(statement, firstIndex + i,
+					values.get(columns[i]));
+		}
+	}
+
+	private static void bindArgs(SQLiteStatement statement, String[] args) {
+		if (args == null) {
+			return;
+		}
+		for (int i = 0; i < args.length; i++) {
+			if (args[i] == null) {
+				statement.bindNull(i + 1);
+			} else {
+				statement.bindString(i + 1, args[i]);
+			}
+		}
+	}
+}
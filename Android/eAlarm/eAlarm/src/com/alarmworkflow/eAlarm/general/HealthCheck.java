@@ -10,6 +10,7 @@ import android.preference.PreferenceManager;
 
 import com.alarmworkflow.eAlarm.R;
 import com.alarmworkflow.eAlarm.database.NotificationRule;
+import com.alarmworkflow.eAlarm.database.RuleRepository;
 import com.google.android.gcm.GCMRegistrar;
 
 public class HealthCheck {
@@ -61,7 +62,7 @@ public class HealthCheck {
 		}
 		int ruleCounts = 0;
 		int ruleLocalDisabledCounts = 0;
-		List<NotificationRule> rules = NotificationRule.FACTORY.listAll(context);
+		List<NotificationRule> rules = RuleRepository.get(context).getRules();
 		ruleCounts = rules.size();
 
 		for (NotificationRule rule : rules) {			
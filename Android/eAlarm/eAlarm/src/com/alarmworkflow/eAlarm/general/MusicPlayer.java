@@ -11,6 +11,7 @@ import android.media.MediaPlayer;
 import android.preference.PreferenceManager;
 
 import com.alarmworkflow.eAlarm.R;
+import com.alarmworkflow.eAlarm.database.MessageWriter;
 import com.alarmworkflow.eAlarm.database.NotificationMessage;
 
 public class MusicPlayer extends BroadcastReceiver implements
@@ -97,11 +98,16 @@ public class MusicPlayer extends BroadcastReceiver implements
 
 	@Override
 	public void onReceive(Context arg0, Intent intent) {
-		// We were provided with a message ID. Load it and then handle it.
-		Long messageId = intent.getLongExtra("messageId", 0);
-
-		NotificationMessage message = NotificationMessage.FACTORY.get(
-				eAlarm.context, messageId);
+		// We were handed the message by token, or provided with a message
+		// ID. Load it and then handle it.
+		long token = intent.getLongExtra("messageToken", 0);
+		NotificationMessage message = token == 0 ? null : MessageWriter
+				.get(token);
+		if (message == null) {
+			Long messageId = intent.getLongExtra("messageId", 0);
+			message = NotificationMessage.FACTORY.get(eAlarm.context,
+					messageId);
+		}
 		if (message == null) {			
 			return;
 		}
@@ -7,7 +7,9 @@ import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.preference.PreferenceManager;
 import android.support.v4.app.NotificationCompat;
 import android.view.Gravity;
@@ -21,12 +23,14 @@ import com.alarmworkflow.eAlarm.MessageList;
 import com.alarmworkflow.eAlarm.NotifyDecision;
 import com.alarmworkflow.eAlarm.R;
 import com.alarmworkflow.eAlarm.SpeakService;
+import com.alarmworkflow.eAlarm.database.MessageWriter;
 import com.alarmworkflow.eAlarm.database.NotificationMessage;
 import com.alarmworkflow.eAlarm.database.NotificationRule;
 
 public class NotificationService extends Service {
 	private static final String TAG = "eAlarm";
 	private NotificationManager notificationManager = null;
+	private final Handler handler = new Handler(Looper.getMainLooper());
 
 	@Override
 	public IBinder onBind(Intent arg0) {
@@ -183,6 +187,78 @@ public class NotificationService extends Service {
 		return defaultValue;
 	}
 
+	/**
+	 * Open the message, post the tray notification and speak, once the
+	 * message is stored. May run on a background thread: the notification
+	 * is built here, everything else is posted to the main thread.
+	 * 
+	 * @param decision
+	 * @param preferences
+	 * @param message
+	 * @param open
+	 * @param saved
+	 *            false if storing the message failed; it then has no ID, so
+	 *            it is not opened and the notification leads to the rule's
+	 *            message list.
+	 */
+	private void notifyStored(final NotifyDecision decision,
+			SharedPreferences preferences, final NotificationMessage message,
+			final boolean open, final boolean saved) {
+		final NotificationRule rule = message.getRule();
+		// Ok, let's start notifying!
+		android.support.v4.app.NotificationCompat.Builder notification;
+		if (saved) {
+			notification = this.setLatestEventInfo(rule, message);
+		} else {
+			Intent listIntent = new Intent(this, MessageList.class);
+			listIntent.putExtra("ruleId", rule.getId());
+			notification = new NotificationCompat.Builder(this)
+					.setSmallIcon(R.drawable.ic_launcher)
+					.setWhen(System.currentTimeMillis())
+					.setContentTitle(message.getTitle())
+					.setContentText(message.getMessage())
+					.setContentIntent(
+							PendingIntent.getActivity(this, 0, listIntent,
+									PendingIntent.FLAG_UPDATE_CURRENT));
+		}
+
+		if (globalOrOverrideBoolean(R.string.vibrateNotify, preferences, rule,
+				true)) {
+			notification.setDefaults(Notification.DEFAULT_VIBRATE);
+		}
+		if (globalOrOverrideBoolean(R.string.ledFlash, preferences, rule,
+				true)) {
+			notification.setLights(0xffff0000, 500, 300);
+		}
+		final Notification built = notification.getNotification();
+		final boolean speak = globalOrOverrideBoolean(R.string.speakMessage,
+				preferences, rule, false);
+
+		handler.post(new Runnable() {
+			public void run() {
+				if (open && saved) {
+					Intent openIntent = new Intent(getBaseContext(),
+							MessageDetail.class);
+					openIntent.putExtra("messageId", message.getId());
+					openIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+					startActivity(openIntent);
+				}
+				// Put the notification in the tray. Use the rule's local ID
+				// to identify it.
+				notificationManager.notify(rule.getNotificationId(), built);
+
+				// If we're speaking, dispatch the message to the speaking
+				// service.
+				if (speak) {
+					Intent intentData = new Intent(getBaseContext(),
+							SpeakService.class);
+					intentData.putExtra("text", decision.getOutputMessage());
+					startService(intentData);
+				}
+			}
+		});
+	}
+
 	public void onStart(Intent intent, int startId) {
 		super.onStart(intent, startId);
 
@@ -202,11 +278,15 @@ public class NotificationService extends Service {
 				return;
 			}
 
-			// We were provided with a message ID. Load it and then handle it.
-			final Long messageId = intent.getLongExtra("messageId", 0);
-
-			NotificationMessage message = NotificationMessage.FACTORY.get(this,
-					messageId);
+			// We were handed the message in memory by token, or provided with
+			// a message ID. Load it and then handle it.
+			final long token = intent.getLongExtra("messageToken", 0);
+			NotificationMessage message = token == 0 ? null : MessageWriter
+					.get(token);
+			if (message == null) {
+				final Long messageId = intent.getLongExtra("messageId", 0);
+				message = NotificationMessage.FACTORY.get(this, messageId);
+			}
 			if (message == null) {
 				return;
 			}
@@ -217,57 +297,45 @@ public class NotificationService extends Service {
 
 			if (decision.getShouldNotify()) {
 				NotificationRule rule = message.getRule();
-				if (globalOrOverrideBoolean(R.string.open, preferences, rule,
-						false)) {
-					Intent open = new Intent(getBaseContext(),
-							MessageDetail.class);
-					open.putExtra("messageId", message.getId());
-					open.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-					startActivity(open);
-				} else {
-					if (globalOrOverrideBoolean(R.string.showToast,
-							preferences, rule, true)) {
-						ShowToast(message.getTitle() + ":\n"
-								+ message.getMessage());
-					}
-
+				boolean open = globalOrOverrideBoolean(R.string.open,
+						preferences, rule, false);
+				// Alert first: the toast and the ringtone do not need the
+				// stored message.
+				if (!open
+						&& globalOrOverrideBoolean(R.string.showToast,
+								preferences, rule, true)) {
+					ShowToast(message.getTitle() + ":\n" + message.getMessage());
 				}
-				// Ok, let's start notifying!
-				android.support.v4.app.NotificationCompat.Builder notification = this
-						.setLatestEventInfo(rule, message);
-
 				if (globalOrOverrideBoolean(R.string.playRingtone, preferences,
 						rule, true)) {
 					Intent i = new Intent(
 							"com.alarmworkflow.eAlarm.MusicPlayer");
-					i.putExtra("messageId", messageId);
+					i.putExtra("messageToken", token);
+					i.putExtra("messageId", message.getId());
 					sendBroadcast(i);
 
 				}
-				if (globalOrOverrideBoolean(R.string.vibrateNotify,
-						preferences, rule, true)) {
-					notification.setDefaults(Notification.DEFAULT_VIBRATE);
-				}
-				if (globalOrOverrideBoolean(R.string.ledFlash, preferences,
-						rule, true)) {
-					notification.setLights(0xffff0000, 500, 300);
-				}
-				// Put the notification in the tray. Use the rule's local ID
-				// to identify it.
-				this.notificationManager.notify(rule.getNotificationId(),
-						notification.getNotification());
 
-				// If we're speaking, dispatch the message to the speaking
-				// service.
-
-				if (globalOrOverrideBoolean(R.string.speakMessage, preferences,
-						rule, false)) {
-					Intent intentData = new Intent(getBaseContext(),
-							SpeakService.class);
-					intentData.putExtra("text", decision.getOutputMessage());
-					startService(intentData);
+				// Everything else refers to the stored message by ID or
+				// counts it as unread, so it runs once the message is
+				// written, without blocking this thread.
+				if (token == 0) {
+					this.notifyStored(decision, preferences, message, open,
+							true);
+				} else {
+					final NotifyDecision writtenDecision = decision;
+					final SharedPreferences writtenPreferences = preferences;
+					final NotificationMessage writtenMessage = message;
+					final boolean writtenOpen = open;
+					MessageWriter.whenWritten(this, token,
+							new MessageWriter.Callback() {
+								public void onWritten(boolean saved) {
+									notifyStored(writtenDecision,
+											writtenPreferences,
+											writtenMessage, writtenOpen, saved);
+								}
+							});
 				}
-
 			}
 		} else if (operation.equals("update")) {
 			// Clear the notifications for a given rule - if there are no
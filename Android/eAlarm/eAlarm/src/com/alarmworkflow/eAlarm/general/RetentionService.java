@@ -0,0 +1,61 @@
+package com.alarmworkflow.eAlarm.general;
+
+import android.app.AlarmManager;
+import android.app.IntentService;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.alarmworkflow.eAlarm.database.MessageRetention;
+
+/**
+ * Applies the message retention policies in the background.
+ *
+ * The service is started once a day by an inexact, non-waking alarm, so it
+ * runs when the device is awake anyway and the system can batch it with
+ * other work. The one-time switch to incremental auto-vacuum waits for a
+ * run with the screen off, as it rewrites the whole database file.
+ */
+public class RetentionService extends IntentService {
+	private static final String TAG = "eAlarm";
+	// Give the application time to settle after start before the first run.
+	private static final long FIRST_RUN_DELAY = AlarmManager.INTERVAL_HOUR;
+
+	public RetentionService() {
+		super("RetentionService");
+	}
+
+	/**
+	 * Schedule the daily run unless it is already scheduled, so it is safe to
+	 * call on every application start without pushing the next run back.
+	 *
+	 * @param context
+	 */
+	public static void schedule(Context context) {
+		Intent intent = new Intent(context, RetentionService.class);
+		if (PendingIntent.getService(context, 0, intent,
+				PendingIntent.FLAG_NO_CREATE) != null) {
+			return;
+		}
+		AlarmManager alarmManager = (AlarmManager) context
+				.getSystemService(Context.ALARM_SERVICE);
+		PendingIntent operation = PendingIntent.getService(context, 0,
+				intent, 0);
+		alarmManager.setInexactRepeating(AlarmManager.ELAPSED_REALTIME,
+				SystemClock.elapsedRealtime() + FIRST_RUN_DELAY,
+				AlarmManager.INTERVAL_DAY, operation);
+	}
+
+	@Override
+	protected void onHandleIntent(Intent intent) {
+		int deleted = MessageRetention.prune(this);
+		Log.i(TAG, "Retention removed " + deleted + " messages");
+		PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+		if (!powerManager.isScreenOn()) {
+			MessageRetention.enableAutoVacuum(this);
+		}
+	}
+}
@@ -7,7 +7,12 @@ import java.util.List;
 import android.app.Application;
 import android.content.Context;
 import android.content.IntentFilter;
+import android.preference.PreferenceManager;
+
+import com.alarmworkflow.eAlarm.R;
 import com.alarmworkflow.eAlarm.database.NotificationRule;
+import com.alarmworkflow.eAlarm.database.RuleRepository;
+import com.alarmworkflow.eAlarm.database.QueryStats;
 
 public class eAlarm extends Application {
 	public static Context context;
@@ -16,9 +21,16 @@ public class eAlarm extends Application {
 	public void onCreate() {
 		super.onCreate();
 		context = getApplicationContext();
+		try {
+			QueryStats.setSlowThresholdMs(Long.parseLong(PreferenceManager
+					.getDefaultSharedPreferences(context).getString(
+							getString(R.string.slowQueryThreshold), "50")));
+		} catch (NumberFormatException e) {
+			// Keep the default threshold.
+		}
         IntentFilter intentFilter = new IntentFilter("com.alarmworkflow.eAlarm.MusicPlayer");
 		registerReceiver(MusicPlayer.getInstance(), intentFilter);
-		List<NotificationRule> rules = NotificationRule.FACTORY.listAll(context);
+		List<NotificationRule> rules = RuleRepository.get(context).getRules();
 		if(rules.size() == 0){
 			NotificationRule rule = new NotificationRule();
 			rule.setTitle("Alle Narchichten");
@@ -27,5 +39,6 @@ public class eAlarm extends Application {
 			rule.setStopTime("23:59");
 			rule.save(context);
 		}
+		RetentionService.schedule(context);
 	}	
 }
@@ -0,0 +1,109 @@
+package com.alarmworkflow.eAlarm.database;
+
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+
+public class ActivationWindowTest extends TestCase {
+	private static final TimeZone BERLIN = TimeZone.getTimeZone("Europe/Berlin");
+	private static final long HOUR_MS = 60 * 60 * 1000L;
+
+	private static int minute(int hours, int minutes) {
+		return hours * 60 + minutes;
+	}
+
+	public void testDayWindowEdges() {
+		ActivationWindow window = new ActivationWindow("08:00", "17:30");
+		assertFalse(window.isActiveAt(minute(7, 59)));
+		assertTrue(window.isActiveAt(minute(8, 0)));
+		assertTrue(window.isActiveAt(minute(17, 29)));
+		assertFalse(window.isActiveAt(minute(17, 30)));
+	}
+
+	public void testOvernightWindow() {
+		ActivationWindow window = new ActivationWindow("22:00", "06:00");
+		assertFalse(window.isActiveAt(minute(21, 59)));
+		assertTrue(window.isActiveAt(minute(22, 0)));
+		assertTrue(window.isActiveAt(minute(23, 59)));
+		assertTrue(window.isActiveAt(minute(0, 0)));
+		assertTrue(window.isActiveAt(minute(5, 59)));
+		assertFalse(window.isActiveAt(minute(6, 0)));
+		assertFalse(window.isActiveAt(minute(12, 0)));
+	}
+
+	public void testWholeDayDefault() {
+		// The rule created on first start.
+		ActivationWindow window = new ActivationWindow("00:00", "23:59");
+		assertTrue(window.isActiveAt(minute(0, 0)));
+		assertTrue(window.isActiveAt(minute(23, 58)));
+		assertFalse(window.isActiveAt(minute(23, 59)));
+	}
+
+	public void testEqualTimesAreEmpty() {
+		ActivationWindow window = new ActivationWindow("00:00", "00:00");
+		for (int m = 0; m < 24 * 60; m++) {
+			assertFalse(window.isActiveAt(m));
+		}
+	}
+
+	public void testInvalidTimeIsNeverActive() {
+		assertFalse(new ActivationWindow("x", "06:00").isActiveAt(minute(1, 0)));
+		assertFalse(new ActivationWindow("00:00", "24:00").isActiveAt(minute(1, 0)));
+		assertFalse(new ActivationWindow(null, "06:00").isActiveAt(minute(1, 0)));
+	}
+
+	public void testParse() {
+		assertEquals(0, ActivationWindow.parseMinuteOfDay("00:00"));
+		assertEquals(minute(6, 5), ActivationWindow.parseMinuteOfDay("06:05"));
+		assertEquals(minute(23, 59), ActivationWindow.parseMinuteOfDay("23:59"));
+		assertEquals(-1, ActivationWindow.parseMinuteOfDay("1200"));
+		assertEquals(-1, ActivationWindow.parseMinuteOfDay("12:60"));
+	}
+
+	public void testMinuteOfDayUtc() {
+		TimeZone utc = TimeZone.getTimeZone("UTC");
+		assertEquals(0, ActivationWindow.minuteOfDay(0, utc));
+		assertEquals(minute(23, 59), ActivationWindow.minuteOfDay(-60000L, utc));
+	}
+
+	public void testSpringForward() {
+		// 2026-03-29 00:59 UTC is 01:59 CET; one minute later the clocks
+		// jump to 03:00 CEST.
+		long beforeSwitch = utc(2026, 3, 29, 0, 59);
+		assertEquals(minute(1, 59),
+				ActivationWindow.minuteOfDay(beforeSwitch, BERLIN));
+		assertEquals(minute(3, 0),
+				ActivationWindow.minuteOfDay(beforeSwitch + 60000L, BERLIN));
+
+		// A night window still ends at 06:00 local time.
+		ActivationWindow window = new ActivationWindow("22:00", "06:00");
+		long morning = utc(2026, 3, 29, 3, 59);
+		assertTrue(window.isActiveAt(ActivationWindow.minuteOfDay(morning,
+				BERLIN)));
+		assertFalse(window.isActiveAt(ActivationWindow.minuteOfDay(morning
+				+ 60000L, BERLIN)));
+	}
+
+	public void testFallBack() {
+		// 2026-10-25: 02:30 local time happens twice, at 00:30 and 01:30 UTC.
+		long first = utc(2026, 10, 25, 0, 30);
+		assertEquals(minute(2, 30), ActivationWindow.minuteOfDay(first, BERLIN));
+		assertEquals(minute(2, 30),
+				ActivationWindow.minuteOfDay(first + HOUR_MS, BERLIN));
+
+		ActivationWindow window = new ActivationWindow("02:00", "03:00");
+		assertTrue(window.isActiveAt(ActivationWindow.minuteOfDay(first,
+				BERLIN)));
+		assertTrue(window.isActiveAt(ActivationWindow.minuteOfDay(first
+				+ HOUR_MS, BERLIN)));
+	}
+
+	private static long utc(int year, int month, int day, int hours,
+			int minutes) {
+		java.util.Calendar calendar = java.util.Calendar.getInstance(TimeZone
+				.getTimeZone("UTC"));
+		calendar.clear();
+		calendar.set(year, month - 1, day, hours, minutes);
+		return calendar.getTimeInMillis();
+	}
+}
@@ -0,0 +1,124 @@
+package com.alarmworkflow.eAlarm.database;
+
+import junit.framework.TestCase;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+/**
+ * Per-row cost of reading the message projection with column indexes
+ * resolved for every row, as inflate() used to, and resolved once per
+ * cursor. The times are logged under the "eAlarm" tag; nothing is asserted
+ * about them.
+ */
+public class ColumnIndexBenchmark extends TestCase {
+	private static final String TAG = "eAlarm";
+	private static final int ROWS = 20000;
+	private static final int ROUNDS = 5;
+
+	private SQLiteDatabase db;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		db = SQLiteDatabase.create(null);
+		db.execSQL("create table messages (_id integer primary key autoincrement, "
+				+ "rule_id integer not null, timestamp text not null, "
+				+ "timestamp_ms integer not null, title text not null, "
+				+ "message text not null, content text not null, "
+				+ "seen integer not null)");
+		SQLiteStatement insert = db
+				.compileStatement("insert into messages (rule_id, timestamp, "
+						+ "timestamp_ms, title, message, content, seen) "
+						+ "values (?, ?, ?, ?, ?, ?, ?)");
+		db.beginTransaction();
+		try {
+			for (int i = 0; i < ROWS; i++) {
+				insert.bindLong(1, i % 10);
+				insert.bindString(2, "2013-05-01T10:00:00.000000");
+				insert.bindLong(3, 1367402400000L + i);
+				insert.bindString(4, "Einsatz " + i);
+				insert.bindString(5, "B3 Brand Wohnhaus");
+				insert.bindString(6, "{\"awf_location\":\"Hauptstr. " + i
+						+ "\"}");
+				insert.bindLong(7, i % 2);
+				insert.executeInsert();
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+			insert.close();
+		}
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		db.close();
+		super.tearDown();
+	}
+
+	public void testInflateColumnIndexes() {
+		// Warm up both paths before measuring.
+		assertEquals(readPerRow(), readCached());
+
+		long perRow = Long.MAX_VALUE;
+		long cached = Long.MAX_VALUE;
+		for (int round = 0; round < ROUNDS; round++) {
+			long start = System.nanoTime();
+			readPerRow();
+			perRow = Math.min(perRow, System.nanoTime() - start);
+			start = System.nanoTime();
+			readCached();
+			cached = Math.min(cached, System.nanoTime() - start);
+		}
+		Log.i(TAG, "Column indexes per row: " + perRow / ROWS
+				+ " ns/row, once per cursor: " + cached / ROWS + " ns/row ("
+				+ ROWS + " rows, best of " + ROUNDS + ")");
+	}
+
+	private long readPerRow() {
+		Cursor cursor = query();
+		try {
+			long checksum = 0;
+			while (cursor.moveToNext()) {
+				checksum += read(cursor,
+						NotificationMessage.FACTORY.getColumnIndexes(cursor));
+			}
+			return checksum;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	private long readCached() {
+		Cursor cursor = query();
+		try {
+			int[] columns = NotificationMessage.FACTORY
+					.getColumnIndexes(cursor);
+			long checksum = 0;
+			while (cursor.moveToNext()) {
+				checksum += read(cursor, columns);
+			}
+			return checksum;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	private Cursor query() {
+		return db.query("messages", DatabaseAdapter.MESSAGE_PROJECTION, null,
+				null, null, null, null);
+	}
+
+	// The reads of NotificationMessage.inflate(), without the rule lookup.
+	private static long read(Cursor cursor, int[] columns) {
+		long checksum = cursor.getLong(columns[0]) + cursor.getLong(columns[1]);
+		checksum += cursor.getString(columns[2]).length();
+		checksum += cursor.getLong(columns[3]);
+		checksum += cursor.getString(columns[4]).length();
+		checksum += cursor.getString(columns[5]).length();
+		checksum += cursor.getString(columns[6]).length();
+		return checksum + cursor.getLong(columns[7]);
+	}
+}
@@ -0,0 +1,136 @@
+package com.alarmworkflow.eAlarm.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+
+public class MigrationTest extends AndroidTestCase {
+	// The schema as released with database version 7.
+	private static final String[] VERSION_7 = new String[] {
+			"create table RULES (_id integer primary key autoincrement, "
+					+ "title text not null, "
+					+ "local_enabled integer not null, "
+					+ "use_global_notification integer not null, "
+					+ "vibrate integer not null, "
+					+ "toast integer not null, "
+					+ "ringtone integer not null, "
+					+ "custom_ringtone text not null, "
+					+ "led_flash integer not null, "
+					+ "overwritesystem integer not null,"
+					+ "searchText text not null,"
+					+ "startTime text not null,"
+					+ "stopTime text not null,"
+					+ "priority integer not null,"
+					+ "speak_message integer not null, "
+					+ "open integer not null,"
+					+ "unlock integer not null" + ");",
+			"create table messages (_id integer primary key autoincrement, "
+					+ "rule_id integer not null, "
+					+ "timestamp text not null, "
+					+ "title text not null, "
+					+ "message text not null, "
+					+ "content text not null," + "seen integer not null " + ");" };
+
+	private Context context;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		// Keeps the database of the installed app untouched.
+		context = new RenamingDelegatingContext(getContext(), "test.");
+		context.deleteDatabase(DatabaseAdapter.DATABASE_NAME);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		context.deleteDatabase(DatabaseAdapter.DATABASE_NAME);
+		super.tearDown();
+	}
+
+	public void testUpgradeWithMalformedTimestamps() {
+		SQLiteDatabase old = createVersion7();
+		insertMessage(old, "garbage");
+		insertMessage(old, "2013-05-01T10:00:00.000123");
+		insertMessage(old, "");
+		insertMessage(old, "2013-05-02T11:00:00.000000");
+		old.setVersion(7);
+		old.close();
+
+		SQLiteDatabase db = new DatabaseAdapter.DatabaseHelper(context)
+				.getWritableDatabase();
+		try {
+			Cursor cursor = db.rawQuery(
+					"select timestamp_ms from messages order by _id", null);
+			try {
+				assertEquals(4, cursor.getCount());
+				long[] expected = new long[] { 0, 1367402400123L,
+						1367402400123L, 1367492400000L };
+				for (long timestamp : expected) {
+					assertTrue(cursor.moveToNext());
+					assertEquals(timestamp, cursor.getLong(0));
+				}
+			} finally {
+				cursor.close();
+			}
+		} finally {
+			db.close();
+		}
+	}
+
+	public void testBackfillAfterUpgrade() {
+		// More than one batch.
+		int messages = 450;
+		SQLiteDatabase old = createVersion7();
+		for (int i = 0; i < messages; i++) {
+			old.execSQL("insert into messages (rule_id, timestamp, title, "
+					+ "message, content, seen) values (1, "
+					+ "'2013-05-01T10:00:00.000000', 'Titel', 'Text', ?, 0)",
+					new Object[] { "{\"awf_location\":\"Hauptstr. " + i
+							+ "\"}" });
+		}
+		old.setVersion(7);
+		old.close();
+
+		SQLiteDatabase db = new DatabaseAdapter.DatabaseHelper(context)
+				.getWritableDatabase();
+		try {
+			// The upgrade itself leaves the old messages for later.
+			assertEquals(0, count(db, "select count(*) from messages_fts"));
+			assertEquals(0, count(db, "select count(*) from message_fields"));
+
+			MessageBackfill.runAll(db);
+			assertEquals(messages,
+					count(db, "select count(*) from messages_fts"));
+			assertEquals(messages,
+					count(db, "select count(*) from message_fields"));
+			assertEquals(1, count(db, "select count(*) from messages_fts "
+					+ "where messages_fts match 'Hauptstr 449'"));
+			assertEquals(0, count(db, "select count(*) from sqlite_master "
+					+ "where name = 'message_backfill'"));
+		} finally {
+			db.close();
+		}
+	}
+
+	private SQLiteDatabase createVersion7() {
+		SQLiteDatabase old = context.openOrCreateDatabase(
+				DatabaseAdapter.DATABASE_NAME, Context.MODE_PRIVATE, null);
+		for (String statement : VERSION_7) {
+			old.execSQL(statement);
+		}
+		return old;
+	}
+
+	private static long count(SQLiteDatabase db, String sql) {
+		return DatabaseUtils.longForQuery(db, sql, null);
+	}
+
+	private static void insertMessage(SQLiteDatabase db, String timestamp) {
+		db.execSQL("insert into messages (rule_id, timestamp, title, message, "
+				+ "content, seen) values (1, ?, 'Titel', 'Text', '{}', 0)",
+				new Object[] { timestamp });
+	}
+}
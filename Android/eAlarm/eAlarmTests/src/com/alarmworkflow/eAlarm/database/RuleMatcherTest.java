@@ -0,0 +1,136 @@
+package com.alarmworkflow.eAlarm.database;
+
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+public class RuleMatcherTest extends TestCase {
+	// A wrong literal drops alarms, so every pattern is checked against
+	// running all patterns on every text.
+	private static final String[] PATTERNS = new String[] {
+			// Plain literals and the prefixes rules usually have.
+			"RTW", "RTW.*", "RTW [0-9]+.*", ".*Brand.*", "B3 Brand Wohnhaus",
+			// Alternation, also with an empty branch.
+			"RTW|NEF", "RTW.*|.*NEF", "RTW|", "B(3|4) Brand.*",
+			// Groups and quantifiers.
+			"(Feuer)?alarm.*", "Brandx?", "Bran*d.*", "Bran+d.*",
+			".*RTW{0,2}.*", "RT(W)*", "B3{2}", "x?y?z?RTW", "Brand(x){1,}",
+			// Escapes.
+			".*\\.Wache.*", "\\d+ RTW", "a\\+b.*", "\\bRTW\\b.*",
+			"\\x52TW.*", "\\u0052TW.*", "\\QB3.\\E.*", "\\p{Lu}TW.*",
+			// Character classes.
+			"[BT][0-9] .*", ".*[.]RTW.*", "[^x]RTW.*", "[a-z&&[^b]]RTW",
+			// Inline flags.
+			"(?i)rtw.*", ".*(?i:feuer).*", "(?s)RTW.*", "(?i)B3 brand.*",
+			// Patterns that match the empty string.
+			"", ".*", "(RTW)?", "x*", "(?:RTW)*", "\\s*" };
+
+	private static final String[] TEXTS = new String[] { "RTW", "RTW 112",
+			"rtw 1", "RtW", "NEF", "xNEF", "B3 Brand Wohnhaus", "B4 Brand",
+			"B33", "Feueralarm", "alarm", "FEUERalarm", "Bran", "Brand",
+			"Brandx", "Brandxx", "Brnd", "Brannnd", "1 RTW", "a+b", "aab",
+			"T1 Hilfe", "x.Wache 3", "B3.Zimmer", "B3xZimmer", "xRTW",
+			"aRTW", "bRTW", "RTWWW", "RT", "zRTW", "xyRTW", "RTW\nB3",
+			" RTW", "", "   " };
+
+	private static ArrayList<NotificationRule> rules(String... patterns) {
+		ArrayList<NotificationRule> rules = new ArrayList<NotificationRule>();
+		for (String pattern : patterns) {
+			NotificationRule rule = new NotificationRule();
+			rule.setSearchText(pattern);
+			rules.add(rule);
+		}
+		return rules;
+	}
+
+	private static ArrayList<NotificationRule> matchAll(
+			ArrayList<NotificationRule> rules, String title, String message) {
+		ArrayList<NotificationRule> matches = new ArrayList<NotificationRule>();
+		for (NotificationRule rule : rules) {
+			if (rule.matchesSearchText(title, message)) {
+				matches.add(rule);
+			}
+		}
+		return matches;
+	}
+
+	private static void assertSameMatches(ArrayList<NotificationRule> rules,
+			RuleMatcher matcher, String title, String message) {
+		ArrayList<NotificationRule> expected = matchAll(rules, title, message);
+		ArrayList<NotificationRule> actual = matcher.match(title, message);
+		if (!expected.equals(actual)) {
+			fail("Title \"" + title + "\", message \"" + message
+					+ "\": expected " + searchTexts(expected) + " but got "
+					+ searchTexts(actual));
+		}
+	}
+
+	private static String searchTexts(ArrayList<NotificationRule> rules) {
+		StringBuilder texts = new StringBuilder("[");
+		for (NotificationRule rule : rules) {
+			texts.append('"').append(rule.getSearchText()).append("\" ");
+		}
+		return texts.append(']').toString();
+	}
+
+	public void testMatchesLikeEveryPattern() {
+		ArrayList<NotificationRule> rules = rules(PATTERNS);
+		RuleMatcher matcher = new RuleMatcher(rules);
+		for (String title : TEXTS) {
+			assertSameMatches(rules, matcher, title, null);
+			assertSameMatches(rules, matcher, null, title);
+			for (String message : TEXTS) {
+				assertSameMatches(rules, matcher, title, message);
+			}
+		}
+	}
+
+	public void testEachPatternAlone() {
+		// Without other rules sharing the automaton.
+		for (String pattern : PATTERNS) {
+			ArrayList<NotificationRule> rules = rules(pattern);
+			RuleMatcher matcher = new RuleMatcher(rules);
+			for (String text : TEXTS) {
+				assertSameMatches(rules, matcher, text, null);
+				assertSameMatches(rules, matcher, "Alarm", text);
+			}
+		}
+	}
+
+	public void testEmptyMatchingPatternsAlwaysMatch() {
+		ArrayList<NotificationRule> rules = rules("", "(RTW)?", "x*", "RTW|");
+		RuleMatcher matcher = new RuleMatcher(rules);
+		assertEquals(4, matcher.match("B3 Brand", "Wohnhaus").size());
+		assertEquals(4, matcher.match(null, null).size());
+	}
+
+	public void testInvalidPatternMatchesNothing() {
+		ArrayList<NotificationRule> rules = rules("RTW(", "RTW.*");
+		RuleMatcher matcher = new RuleMatcher(rules);
+		ArrayList<NotificationRule> matches = matcher.match("RTW 1", null);
+		assertEquals(1, matches.size());
+		assertEquals("RTW.*", matches.get(0).getSearchText());
+	}
+
+	public void testRequiredLiteral() {
+		assertEquals("RTW ", RuleMatcher.requiredLiteral("RTW [0-9]+.*"));
+		assertEquals("Brand", RuleMatcher.requiredLiteral(".*Brand.*"));
+		assertEquals(" Brand", RuleMatcher.requiredLiteral("B(3|4) Brand.*"));
+		assertEquals("Brand", RuleMatcher.requiredLiteral("Brandx?"));
+		assertEquals("Bra", RuleMatcher.requiredLiteral("Bran*d.*"));
+		assertEquals("RT", RuleMatcher.requiredLiteral(".*RTW{0,2}.*"));
+		assertEquals(".Wache", RuleMatcher.requiredLiteral(".*\\.Wache.*"));
+		assertEquals("a+b", RuleMatcher.requiredLiteral("a\\+b.*"));
+		assertEquals("RTW", RuleMatcher.requiredLiteral("[^x]RTW.*"));
+	}
+
+	public void testNoLiteralWhenUnsure() {
+		String[] unsure = new String[] { null, "", ".*", "x*", "(RTW)?",
+				"RTW|NEF", "RTW|", "(?i)rtw.*", ".*(?i:feuer).*",
+				"\\QB3.\\E.*", "\\x52TW.*", "\\u0052TW.*", "\\p{Lu}TW.*",
+				"[a-z&&[^b]]RTW", "(?s)RTW.*" };
+		for (String pattern : unsure) {
+			assertNull(pattern, RuleMatcher.requiredLiteral(pattern));
+		}
+	}
+}